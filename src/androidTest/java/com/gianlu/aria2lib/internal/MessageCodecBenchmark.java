@@ -0,0 +1,127 @@
+package com.gianlu.aria2lib.internal;
+
+import android.content.Intent;
+import android.os.Parcel;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the primitive {@link MessageCodec#encode(Message, Intent)} to the serializable {@link MessageCodec#encodeLegacy(Message, Intent)}
+ * on the payloads sent most often: monitor ticks and exceptions. Both encoding alone, which is what a local broadcast costs,
+ * and encoding plus parceling, which is what crossing a process boundary costs, are measured.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageCodecBenchmark {
+    private static final String TAG = MessageCodecBenchmark.class.getSimpleName();
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 20000;
+
+    @NonNull
+    private static Message monitorMessage() {
+        MonitorUpdate update = MonitorUpdate.obtain(12345, "3.5", 48 * 1024 * 1024);
+        update.setGlobalStat(1024 * 1024, 64 * 1024, 3, 10, 200);
+        return Message.obtain(Message.Type.MONITOR_UPDATE, update);
+    }
+
+    @NonNull
+    private static Message exceptionMessage() {
+        return Message.obtain(Message.Type.MONITOR_FAILED, new IOException("Failed reading /proc/12345/stat"));
+    }
+
+    private static void encode(@NonNull Message msg, @NonNull Intent intent, boolean legacy) {
+        if (legacy) MessageCodec.encodeLegacy(msg, intent);
+        else MessageCodec.encode(msg, intent);
+    }
+
+    /**
+     * @return the average time per message in nanoseconds
+     */
+    private static long run(boolean monitor, boolean legacy, boolean parcel) {
+        long start = 0;
+        for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+            if (i == WARMUP) start = System.nanoTime();
+
+            Message msg = monitor ? monitorMessage() : exceptionMessage();
+            Intent intent = new Intent(Aria2Service.BROADCAST_MESSAGE);
+            encode(msg, intent, legacy);
+            if (parcel) {
+                Parcel p = Parcel.obtain();
+                intent.writeToParcel(p, 0);
+                p.recycle();
+            }
+
+            if (monitor) ((MonitorUpdate) msg.object()).recycle();
+            msg.recycle();
+        }
+
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static int parceledSize(@NonNull Message msg, boolean legacy) {
+        Intent intent = new Intent(Aria2Service.BROADCAST_MESSAGE);
+        encode(msg, intent, legacy);
+        Parcel p = Parcel.obtain();
+        try {
+            intent.writeToParcel(p, 0);
+            return p.dataSize();
+        } finally {
+            p.recycle();
+        }
+    }
+
+    private static void compare(boolean monitor) {
+        String what = monitor ? "monitor update" : "exception";
+        long legacyEncode = run(monitor, true, false);
+        long primitiveEncode = run(monitor, false, false);
+        long legacyParcel = run(monitor, true, true);
+        long primitiveParcel = run(monitor, false, true);
+
+        Message msg = monitor ? monitorMessage() : exceptionMessage();
+        int legacySize = parceledSize(msg, true);
+        int primitiveSize = parceledSize(msg, false);
+
+        Log.i(TAG, String.format("%s: encode %dns -> %dns, encode+parcel %dns -> %dns, parcel size %dB -> %dB", what,
+                legacyEncode, primitiveEncode, legacyParcel, primitiveParcel, legacySize, primitiveSize));
+
+        assertTrue(what + " parcel isn't smaller", primitiveSize < legacySize);
+        assertTrue(what + " encode+parcel isn't faster", primitiveParcel < legacyParcel);
+    }
+
+    @Test
+    public void monitorUpdate() {
+        compare(true);
+    }
+
+    @Test
+    public void exception() {
+        compare(false);
+    }
+
+    @Test
+    public void roundTrip() {
+        Message msg = monitorMessage();
+        Intent intent = new Intent(Aria2Service.BROADCAST_MESSAGE);
+        MessageCodec.encode(msg, intent);
+
+        Aria2Events.Event event = MessageCodec.decode(intent);
+        assertNotNull(event);
+        assertEquals(Message.Type.MONITOR_UPDATE, event.type);
+
+        MonitorUpdate update = (MonitorUpdate) event.o;
+        assertEquals(12345, update.pid());
+        assertEquals("3.5", update.cpu());
+        assertEquals(1024 * 1024, update.downloadSpeed());
+        assertEquals(200, update.numStopped());
+    }
+}
@@ -0,0 +1,9 @@
+package com.gianlu.aria2lib.ui;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+/**
+ * Empty activity whose content is set by the test it hosts.
+ */
+public class HostActivity extends AppCompatActivity {
+}
@@ -0,0 +1,143 @@
+package com.gianlu.aria2lib.ui;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.ext.junit.rules.ActivityScenarioRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Appends thousands of lines per second to a full {@link LogEntriesAdapter}, set up like the logs of
+ * {@link Aria2ConfigurationScreen}, and records the frame times while the list follows the tail.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LogEntriesFrameTest {
+    private static final String TAG = LogEntriesFrameTest.class.getSimpleName();
+    private static final int CAPACITY = 10000;
+    private static final int LINES_PER_SECOND = 5000;
+    private static final int APPEND_INTERVAL_MS = 4;
+    private static final int DURATION_MS = 5000;
+    private static final double MAX_JANKY_FRAMES = 0.05;
+    @Rule
+    public final ActivityScenarioRule<HostActivity> rule = new ActivityScenarioRule<>(HostActivity.class);
+
+    @NonNull
+    private static Aria2ConfigurationScreen.LogEntry entry(int i) {
+        switch (i % 50) {
+            case 0:
+                return new Aria2ConfigurationScreen.LogEntry(Aria2ConfigurationScreen.LogEntry.Type.ERROR,
+                        "CUID#" + i + " - Download aborted. URI=http://mirror.example.org/pub/file-" + i + ".iso");
+            case 1:
+                return new Aria2ConfigurationScreen.LogEntry(Aria2ConfigurationScreen.LogEntry.Type.WARNING,
+                        "Neither ARIA2_CONFIG_FILE nor HOME is set", i % 7);
+            default:
+                return new Aria2ConfigurationScreen.LogEntry(Aria2ConfigurationScreen.LogEntry.Type.INFO,
+                        "[#2089b0 " + i + ".0MiB/4704.0MiB(" + (i % 100) + "%) CN:11 DL:4.1MiB ETA:19m15s]");
+        }
+    }
+
+    private static long percentile(@NonNull List<Long> sorted, double p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * p)));
+    }
+
+    @Test
+    public void appendingWhileFollowingTheTail() throws InterruptedException {
+        AtomicReference<RecyclerView> list = new AtomicReference<>();
+        AtomicReference<LogEntriesAdapter> adapter = new AtomicReference<>();
+        AtomicReference<Float> refreshRate = new AtomicReference<>();
+        rule.getScenario().onActivity(activity -> {
+            RecyclerView view = new RecyclerView(activity);
+            view.setLayoutManager(new LinearLayoutManager(activity, RecyclerView.VERTICAL, false));
+            view.setItemAnimator(null);
+            view.setHasFixedSize(true);
+            view.setAdapter(new LogEntriesAdapter(activity, CAPACITY, count -> {
+            }));
+            activity.setContentView(view, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+
+            list.set(view);
+            adapter.set((LogEntriesAdapter) view.getAdapter());
+            refreshRate.set(activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+
+            for (int i = 0; i < CAPACITY; i++) adapter.get().add(entry(i));
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        List<Long> frameTimes = new ArrayList<>();
+        int[] appended = new int[1];
+        CountDownLatch done = new CountDownLatch(1);
+        Handler handler = new Handler(Looper.getMainLooper());
+        handler.post(() -> {
+            long start = SystemClock.uptimeMillis();
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    long elapsed = SystemClock.uptimeMillis() - start;
+                    if (elapsed >= DURATION_MS) return;
+
+                    long due = elapsed * LINES_PER_SECOND / 1000;
+                    for (; appended[0] < due; appended[0]++) adapter.get().add(entry(CAPACITY + appended[0]));
+                    handler.postDelayed(this, APPEND_INTERVAL_MS);
+                }
+            });
+
+            Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    frameTimes.add(frameTimeNanos);
+                    if (SystemClock.uptimeMillis() - start < DURATION_MS)
+                        Choreographer.getInstance().postFrameCallback(this);
+                    else
+                        done.countDown();
+                }
+            });
+        });
+
+        assertTrue("Timed out", done.await(DURATION_MS * 4, TimeUnit.MILLISECONDS));
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        List<Long> intervals = new ArrayList<>(frameTimes.size());
+        for (int i = 1; i < frameTimes.size(); i++) intervals.add(frameTimes.get(i) - frameTimes.get(i - 1));
+        Collections.sort(intervals);
+
+        long vsyncNanos = (long) (1_000_000_000L / refreshRate.get());
+        int janky = 0;
+        for (long interval : intervals)
+            if (interval > vsyncNanos * 2) janky++;
+
+        double jankyFraction = (double) janky / intervals.size();
+        Log.i(TAG, String.format("%d lines in %dms, %d frames at %.0fHz: p50 %.1fms, p90 %.1fms, p99 %.1fms, max %.1fms, %.1f%% janky",
+                appended[0], DURATION_MS, intervals.size(), refreshRate.get(), percentile(intervals, 0.5) / 1e6,
+                percentile(intervals, 0.9) / 1e6, percentile(intervals, 0.99) / 1e6, intervals.get(intervals.size() - 1) / 1e6,
+                jankyFraction * 100));
+
+        rule.getScenario().onActivity(activity -> {
+            assertEquals(CAPACITY, adapter.get().getItemCount());
+            assertFalse("Not following the tail", list.get().canScrollVertically(1));
+        });
+        assertTrue("Too many janky frames: " + janky + "/" + intervals.size(), jankyFraction <= MAX_JANKY_FRAMES);
+    }
+}
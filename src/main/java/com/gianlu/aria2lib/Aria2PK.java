@@ -7,6 +7,11 @@ import com.gianlu.commonutils.preferences.Prefs;
 
 public abstract class Aria2PK extends CommonPK {
     public static final Prefs.KeyWithDefault<Integer> NOTIFICATION_UPDATE_DELAY = new Prefs.KeyWithDefault<>("updateDelay", 1);
+    public static final Prefs.KeyWithDefault<Integer> LOG_BATCH_WINDOW = new Prefs.KeyWithDefault<>("logBatchWindow", 0);
+    public static final Prefs.KeyWithDefault<Integer> LOG_BATCH_MAX_LINES = new Prefs.KeyWithDefault<>("logBatchMaxLines", 200);
+    public static final Prefs.KeyWithDefault<Integer> LOG_FOLD_WINDOW = new Prefs.KeyWithDefault<>("logFoldWindow", 2000);
+    public static final Prefs.KeyWithDefault<Integer> LOG_RATE_LIMIT = new Prefs.KeyWithDefault<>("logRateLimit", 0);
+    public static final Prefs.KeyWithDefault<Boolean> LOG_JOURNAL = new Prefs.KeyWithDefault<>("logJournal", true);
     public static final Prefs.KeyWithDefault<Boolean> SHOW_PERFORMANCE = new Prefs.KeyWithDefault<>("showPerformance", true);
     public static final Prefs.KeyWithDefault<Integer> RPC_PORT = new Prefs.KeyWithDefault<>("rpcPort", 6800);
     public static final Prefs.KeyWithDefault<String> RPC_TOKEN = new Prefs.KeyWithDefault<>("rpcToken", "aria2");
@@ -16,5 +21,9 @@ public abstract class Aria2PK extends CommonPK {
     public static final Prefs.KeyWithDefault<String> OUTPUT_DIRECTORY = new Prefs.KeyWithDefault<>("outputPath", Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS).getAbsolutePath());
     public static final Prefs.Key CUSTOM_OPTIONS = new Prefs.Key("customOptions");
     public static final Prefs.KeyWithDefault<Boolean> SAVE_SESSION = new Prefs.KeyWithDefault<>("saveSession", true);
+    public static final Prefs.KeyWithDefault<Boolean> COMPACT_SESSION = new Prefs.KeyWithDefault<>("compactSession", false);
     public static final Prefs.Key BARE_CONFIG_PROVIDER = new Prefs.Key("bareConfigProvider");
+    public static final Prefs.Key BUILD_INFO_CACHE = new Prefs.Key("aria2BuildInfo");
+    public static final Prefs.Key CA_CERTS_FINGERPRINT = new Prefs.Key("caCertsFingerprint");
+    public static final Prefs.Key LAST_RPC_READY_MILLIS = new Prefs.Key("lastRpcReadyMillis");
 }
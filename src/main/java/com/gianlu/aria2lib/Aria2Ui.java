@@ -14,14 +14,27 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.gianlu.aria2lib.internal.Aria2;
+import com.gianlu.aria2lib.internal.Aria2Build;
+import com.gianlu.aria2lib.internal.Aria2Events;
 import com.gianlu.aria2lib.internal.Aria2Service;
+import com.gianlu.aria2lib.internal.DnsDiscovery;
+import com.gianlu.aria2lib.internal.LogBatch;
+import com.gianlu.aria2lib.internal.LogJournal;
 import com.gianlu.aria2lib.internal.Message;
+import com.gianlu.aria2lib.internal.Reconfiguration;
+import com.gianlu.aria2lib.internal.RingBuffer;
+import com.gianlu.aria2lib.internal.SessionInspector;
+import com.gianlu.aria2lib.internal.StartupTrace;
+import com.gianlu.aria2lib.internal.TransferHistory;
 import com.gianlu.commonutils.misc.SuperTextView;
 import com.gianlu.commonutils.preferences.Prefs;
 
+import org.json.JSONException;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
@@ -30,19 +43,23 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Objects;
 
 public class Aria2Ui {
     public static final int MAX_LOG_LINES = 100;
+    public static final int DEFAULT_LOG_CAPACITY = 1000;
     private static final String TAG = Aria2Ui.class.getSimpleName();
     private final Aria2 aria2;
     private final Context context;
     private final Listener listener;
     private final LocalBroadcastManager broadcastManager;
-    private final List<LogMessage> messages = new ArrayList<>(MAX_LOG_LINES);
+    private final RingBuffer<LogMessage> messages;
     private final ServiceBroadcastReceiver receiver;
+    private final Aria2Events.Listener eventListener = event -> publishMessage(new LogMessage(event.type, event.i,
+            event.o instanceof Serializable ? (Serializable) event.o : null));
     private Messenger messenger;
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
@@ -59,21 +76,75 @@ public class Aria2Ui {
     };
 
     public Aria2Ui(@NonNull Context context, @Nullable Listener listener) {
+        this(context, listener, DEFAULT_LOG_CAPACITY);
+    }
+
+    public Aria2Ui(@NonNull Context context, @Nullable Listener listener, int logCapacity) {
         this.context = context;
         this.listener = listener;
+        this.messages = new RingBuffer<>(logCapacity);
         this.aria2 = Aria2.get();
         this.broadcastManager = LocalBroadcastManager.getInstance(context);
 
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(Aria2Service.BROADCAST_MESSAGE);
-        filter.addAction(Aria2Service.BROADCAST_STATUS);
-        broadcastManager.registerReceiver(receiver = new ServiceBroadcastReceiver(), filter);
+        Aria2Events.subscribe(eventListener);
+        broadcastManager.registerReceiver(receiver = new ServiceBroadcastReceiver(), new IntentFilter(Aria2Service.BROADCAST_STATUS));
     }
 
     public static void provider(@NonNull Class<? extends BareConfigProvider> providerClass) {
         Prefs.putString(Aria2PK.BARE_CONFIG_PROVIDER, providerClass.getCanonicalName());
     }
 
+    /**
+     * Searches the aria2c output journal, see {@link LogJournal#search(String, EnumSet, int)}.
+     *
+     * @return the matching records, newest first, or an empty list if the journal is disabled
+     */
+    @WorkerThread
+    @NonNull
+    public static List<LogJournal.Record> searchLogs(@NonNull String query, @Nullable EnumSet<Message.Type> types, int limit) {
+        LogJournal journal = Aria2.get().journal();
+        if (journal == null) return Collections.emptyList();
+        return journal.search(query, types, limit);
+    }
+
+    /**
+     * Applies the changed options to the running aria2c, see {@link Aria2#reconfigure()}.
+     * If {@link Reconfiguration#restartRequired()} the process must be restarted with {@link #restart(Context)}.
+     */
+    @WorkerThread
+    @NonNull
+    public static Reconfiguration reconfigure() throws BadEnvironmentException, IOException {
+        return Aria2.get().reconfigure();
+    }
+
+    /**
+     * Restarts the running aria2c through the service, so that it picks up the current configuration.
+     */
+    public static void restart(@NonNull Context context) {
+        Aria2Service.restartService(context);
+    }
+
+    /**
+     * @return the startup spans recorded so far, oldest first, see {@link StartupTrace}
+     */
+    @NonNull
+    public static List<StartupTrace.Span> startupTrace() {
+        return StartupTrace.spans();
+    }
+
+    /**
+     * @return the startup spans as JSON, suitable for sharing with a bug report
+     */
+    @NonNull
+    public static String startupTraceJson() {
+        try {
+            return StartupTrace.toJson().toString();
+        } catch (JSONException ex) {
+            Log.e(TAG, "Failed exporting startup trace.", ex);
+            return "{}";
+        }
+    }
+
     @NonNull
     public static String getInterfacesIPsFormatted() {
         try {
@@ -106,15 +177,22 @@ public class Aria2Ui {
         }
     }
 
+    /**
+     * Binds to the service, must be paired with {@link #unbind()}. Messages are received from construction until {@link #close()} regardless.
+     */
     public void bind() {
         if (messenger != null) return;
 
         context.bindService(new Intent(context, Aria2Service.class), serviceConnection, Context.BIND_AUTO_CREATE);
     }
 
-    @Override
-    protected void finalize() {
-        if (receiver != null) broadcastManager.unregisterReceiver(receiver);
+    /**
+     * Unbinds and releases everything this instance registered, it shouldn't be used afterwards.
+     */
+    public void close() {
+        unbind();
+        Aria2Events.unsubscribe(eventListener);
+        broadcastManager.unregisterReceiver(receiver);
     }
 
     public void unbind() {
@@ -136,15 +214,40 @@ public class Aria2Ui {
     }
 
     public void loadEnv(@NonNull Context context) throws BadEnvironmentException {
+        DnsDiscovery.init(context);
         File parent = context.getFilesDir();
         aria2.loadEnv(parent, new File(context.getApplicationInfo().nativeLibraryDir, "libaria2c.so"), new File(parent, "session"));
     }
 
+    /**
+     * Inspects the session file without loading it, see {@link SessionInspector}.
+     */
+    @WorkerThread
+    @NonNull
+    public SessionInspector.Stats inspectSession() throws BadEnvironmentException, IOException {
+        File session = aria2.sessionFile();
+        if (session == null) throw new BadEnvironmentException("Missing environment!");
+        return SessionInspector.inspect(session);
+    }
+
+    @NonNull
+    public TransferHistory.Window transferHistory(int minutes) {
+        return Aria2Service.transferHistory().last(minutes);
+    }
+
     @NonNull
     public String version() throws IOException, BadEnvironmentException {
         return aria2.version();
     }
 
+    /**
+     * @return the version and enabled features of the aria2c binary, probed only once per binary
+     */
+    @NonNull
+    public Aria2Build build() throws IOException, BadEnvironmentException {
+        return aria2.build();
+    }
+
     public void startService() {
         bind();
 
@@ -196,26 +299,45 @@ public class Aria2Ui {
 
     @UiThread
     public void updateLogs(@NonNull Listener listener) {
-        listener.onUpdateLogs(Collections.unmodifiableList(messages));
+        listener.onUpdateLogs(messages.snapshot());
     }
 
     private void publishMessage(@NonNull LogMessage msg) {
-        if (msg.type != Message.Type.MONITOR_UPDATE) {
-            if (messages.size() >= MAX_LOG_LINES)
-                messages.remove(0);
+        if (msg.type == Message.Type.PROCESS_LOG_BATCH) {
+            if (msg.o instanceof LogBatch) publishBatch((LogBatch) msg.o);
+            return;
+        }
 
+        if (msg.type != Message.Type.MONITOR_UPDATE && !msg.type.isDownloadEvent())
             messages.add(msg);
-        }
 
         if (listener != null) listener.onMessage(msg);
     }
 
+    private void publishBatch(@NonNull LogBatch batch) {
+        List<LogMessage> list = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            LogMessage msg = new LogMessage(batch.type(i), batch.repeats(i), batch.line(i));
+            messages.add(msg);
+            list.add(msg);
+        }
+
+        if (listener != null) listener.onMessages(list);
+    }
+
     @UiThread
     public interface Listener {
         void onUpdateLogs(@NonNull List<LogMessage> msg);
 
         void onMessage(@NonNull LogMessage msg);
 
+        /**
+         * Called once for every batch of log lines when {@link Aria2PK#LOG_BATCH_WINDOW} is enabled.
+         */
+        default void onMessages(@NonNull List<LogMessage> msgs) {
+            for (LogMessage msg : msgs) onMessage(msg);
+        }
+
         void updateUi(boolean on);
     }
 
@@ -229,20 +351,27 @@ public class Aria2Ui {
             this.i = i;
             this.o = o;
         }
+
+        /**
+         * @return how many identical aria2c output lines have been folded into this one, see {@link Aria2PK#LOG_FOLD_WINDOW}
+         */
+        public int repeats() {
+            switch (type) {
+                case PROCESS_INFO:
+                case PROCESS_WARN:
+                case PROCESS_ERROR:
+                    return i;
+                default:
+                    return 0;
+            }
+        }
     }
 
     private class ServiceBroadcastReceiver extends BroadcastReceiver {
 
         @Override
         public void onReceive(Context context, Intent intent) {
-            if (Objects.equals(intent.getAction(), Aria2Service.BROADCAST_MESSAGE)) {
-                Message.Type type = (Message.Type) intent.getSerializableExtra("type");
-                if (type == null) return;
-
-                int i = intent.getIntExtra("i", 0);
-                Serializable o = intent.getSerializableExtra("o");
-                publishMessage(new LogMessage(type, i, o));
-            } else if (Objects.equals(intent.getAction(), Aria2Service.BROADCAST_STATUS)) {
+            if (Objects.equals(intent.getAction(), Aria2Service.BROADCAST_STATUS)) {
                 if (listener != null) listener.updateUi(intent.getBooleanExtra("on", false));
             }
         }
@@ -1,61 +1,72 @@
 package com.gianlu.aria2lib.internal;
 
 import android.annotation.SuppressLint;
-import android.util.Base64;
+import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.gianlu.aria2lib.Aria2PK;
 import com.gianlu.aria2lib.BadEnvironmentException;
+import com.gianlu.aria2lib.rpc.Aria2RpcClient;
 import com.gianlu.commonutils.preferences.Prefs;
-import com.gianlu.commonutils.preferences.json.JsonStoring;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
-import java.util.ArrayList;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public final class Aria2 {
-    private static final Pattern INFO_MESSAGE_PATTERN = Pattern.compile("^\\d{2}/\\d{2} \\d{2}:\\d{2}:\\d{2} \\[.+] (.+)$");
     private static final String TAG = Aria2.class.getSimpleName();
+    private static final int JOURNAL_SEGMENT_SIZE = 1024 * 1024;
+    private static final int JOURNAL_MAX_SEGMENTS = 8;
+    private static final int RPC_READINESS_SLOW_MS = 10000;
+    private static final int RECONFIGURE_TIMEOUT_MS = 10000;
     private static Aria2 instance;
     private final MessageHandler messageHandler;
     private final Object processLock = new Object();
+    private final EnvPreparer envPreparer = new EnvPreparer();
     private Env env;
     private Monitor monitor;
     private StreamWatcher errorWatcher;
     private StreamWatcher inputWatcher;
     private Process currentProcess;
+    private volatile Aria2RpcClient rpcClient;
+    private volatile LogBatcher logBatcher;
+    private volatile LogFolder logFolder;
+    private volatile LogJournal journal;
+    private volatile int currentPid = -1;
+    private volatile boolean awaitingFirstLine = false;
+    private volatile RpcReadinessProbe readinessProbe;
+    private long spawnedAt;
+    private Waiter waiter;
+    private volatile Map<String, String> runningParams;
 
     private Aria2() {
         messageHandler = new MessageHandler();
+        messageHandler.listeners.add(this::writeJournal);
         new Thread(messageHandler).start();
     }
 
@@ -90,55 +101,27 @@ public final class Aria2 {
         return false;
     }
 
-    @Nullable
-    private static String getprop(@NonNull String key) {
-        Process p = null;
-        try {
-            p = Runtime.getRuntime().exec("getprop " + key);
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                String l = in.readLine();
-                if (l.isEmpty()) return null;
-                else return l;
-            }
-        } catch (IOException ex) {
-            return null;
-        } finally {
-            if (p != null) p.destroy();
-        }
-    }
-
-    @Nullable
-    private File storeAllCertificates(@NonNull File parent) {
-        File certs = new File(parent, "ca-certs");
-        try (FileOutputStream out = new FileOutputStream(certs, false)) {
-            KeyStore ks = KeyStore.getInstance("AndroidCAStore");
-            if (ks != null) {
-                ks.load(null, null);
-                Enumeration<String> aliases = ks.aliases();
-
-                while (aliases.hasMoreElements()) {
-                    String alias = aliases.nextElement();
-
-                    Certificate cert = ks.getCertificate(alias);
-                    out.write("-----BEGIN CERTIFICATE-----\n".getBytes());
-                    out.write(Base64.encode(cert.getEncoded(), 0));
-                    out.write("-----END CERTIFICATE-----\n".getBytes());
-                }
-            }
-
-            return certs;
-        } catch (IOException | KeyStoreException | CertificateException | NoSuchAlgorithmException ex) {
-            Log.e(TAG, "Failed getting CA certificates.", ex);
-        }
+    /**
+     * Looks for the spawned process in {@code /proc}, {@link Process} has no public PID accessor on Android.
+     * The whole command line is matched so that a concurrent {@code aria2c -v} isn't picked.
+     *
+     * @param previous the children running the same binary before the process was spawned
+     */
+    private static int pidOf(@NonNull String execPath, @NonNull String[] params, @NonNull Set<Integer> previous) {
+        String[] cmdline = new String[params.length + 1];
+        cmdline[0] = execPath;
+        System.arraycopy(params, 0, cmdline, 1, params.length);
 
-        return null;
+        int pid = ProcSampler.findChildPid(android.os.Process.myPid(), cmdline, previous);
+        if (pid == -1) Log.w(TAG, "Failed finding process PID for " + execPath);
+        return pid;
     }
 
-    void addListener(@NonNull MessageListener listener) {
+    public void addListener(@NonNull MessageListener listener) {
         messageHandler.listeners.add(listener);
     }
 
-    void removeListener(@NonNull MessageListener listener) {
+    public void removeListener(@NonNull MessageListener listener) {
         messageHandler.listeners.remove(listener);
     }
 
@@ -148,17 +131,54 @@ public final class Aria2 {
 
     @NonNull
     public String version() throws BadEnvironmentException, IOException {
+        return build().version;
+    }
+
+    /**
+     * @return the cached build information or {@code null} if the current binary hasn't been probed yet
+     */
+    @Nullable
+    public Aria2Build cachedBuild() {
+        if (env == null) return null;
+        return Aria2Build.fromJson(Prefs.getString(Aria2PK.BUILD_INFO_CACHE, null), env.exec);
+    }
+
+    /**
+     * Runs {@code aria2c -v} only if the binary changed since the last probe, otherwise the cached result is returned.
+     * The result is cached only if the probe exited cleanly and printed a version.
+     */
+    @NonNull
+    public Aria2Build build() throws BadEnvironmentException, IOException {
         if (env == null)
             throw new BadEnvironmentException("Missing environment!");
 
+        Aria2Build cached = cachedBuild();
+        if (cached != null) return cached;
+
         try {
             Process process = execWithParams(false, "-v");
-            process.waitFor();
 
+            StringBuilder output = new StringBuilder();
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String str = reader.readLine();
-                return str == null ? "" : str;
+                String line;
+                while ((line = reader.readLine()) != null) output.append(line).append('\n');
+            }
+
+            int exitCode = process.waitFor();
+
+            Aria2Build build = Aria2Build.parse(env.exec, output.toString());
+            if (exitCode != 0 || build.version.isEmpty()) {
+                Log.w(TAG, "Not caching build information, exit code: " + exitCode + ", output: " + output);
+                return build;
+            }
+
+            try {
+                Prefs.putString(Aria2PK.BUILD_INFO_CACHE, build.toJson());
+            } catch (JSONException ex) {
+                Log.w(TAG, "Failed caching build information.", ex);
             }
+
+            return build;
         } catch (InterruptedException ex) {
             throw new IOException(ex);
         }
@@ -178,55 +198,304 @@ public final class Aria2 {
     }
 
     public void loadEnv(@NonNull File parent, @NonNull File exec, @NonNull File session) throws BadEnvironmentException {
-        if (!exec.exists())
-            throw new BadEnvironmentException(exec.getAbsolutePath() + " doesn't exists!");
+        EnvPreparer.Result prepared = envPreparer.prepare(parent, exec, session);
+        this.env = new Env(parent, exec, session, prepared.caCerts, prepared.customOptions);
+
+        boolean journalEnabled = Prefs.getBoolean(Aria2PK.LOG_JOURNAL);
+        if (journal == null && journalEnabled) {
+            journal = new LogJournal(new File(parent, "journal"), JOURNAL_SEGMENT_SIZE, JOURNAL_MAX_SEGMENTS);
+        } else if (journal != null && !journalEnabled) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * @return the duration in microseconds of each environment preparation step of the last {@link #loadEnv(File, File, File)}
+     */
+    @NonNull
+    public Map<String, Long> envTimings() {
+        return envPreparer.timings();
+    }
 
-        if (!exec.canExecute() && !exec.setExecutable(true))
-            throw new BadEnvironmentException(exec.getAbsolutePath() + " can't be executed!");
+    /**
+     * @return the session file passed to aria2c or {@code null} if the environment hasn't been loaded
+     */
+    @Nullable
+    public File sessionFile() {
+        return env == null ? null : env.session;
+    }
 
-        if (session.exists()) {
-            if (!session.canRead() && !session.setReadable(true))
-                throw new BadEnvironmentException(session.getAbsolutePath() + " can't be read!");
-        } else {
-            try {
-                if (!session.createNewFile())
-                    throw new BadEnvironmentException(session.getAbsolutePath() + " can't be created!");
-            } catch (IOException ex) {
-                throw new BadEnvironmentException(ex);
-            }
+    /**
+     * @return the on-disk journal of aria2c output or {@code null} if disabled
+     */
+    @Nullable
+    public LogJournal journal() {
+        return journal;
+    }
+
+    /**
+     * Lines dropped by the rate limit still make it into the journal.
+     */
+    private void writeJournal(@NonNull Message.Type type, @NonNull String line) {
+        LogJournal journal = this.journal;
+        if (journal == null) return;
+
+        try {
+            journal.append(System.currentTimeMillis(), type, line);
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed writing journal, disabling it.", ex);
+            journal.close();
+            this.journal = null;
         }
+    }
 
-        this.env = new Env(parent, exec, session, storeAllCertificates(parent));
+    @NonNull
+    private static String journalText(@NonNull String line, int repeats) {
+        return repeats > 0 ? line + " (repeated " + repeats + " times)" : line;
+    }
+
+    private void writeJournal(@NonNull Message msg) {
+        LogJournal journal = this.journal;
+        if (journal == null) return;
+
+        long now = System.currentTimeMillis();
+        try {
+            switch (msg.type()) {
+                case MONITOR_UPDATE:
+                    break;
+                case PROCESS_TERMINATED:
+                    journal.append(now, msg.type(), "Terminated with exit code " + msg.integer());
+                    break;
+                case RPC_READY:
+                    journal.append(now, msg.type(), "RPC ready after " + msg.integer() + "ms");
+                    break;
+                case PROCESS_LOG_BATCH:
+                    if (msg.object() instanceof LogBatch) {
+                        LogBatch batch = (LogBatch) msg.object();
+                        for (int i = 0; i < batch.size(); i++)
+                            journal.append(now, batch.type(i), journalText(batch.line(i), batch.repeats(i)));
+                    }
+                    break;
+                case PROCESS_INFO:
+                case PROCESS_WARN:
+                case PROCESS_ERROR:
+                    journal.append(now, msg.type(), journalText(String.valueOf(msg.object()), msg.integer()));
+                    break;
+                default:
+                    journal.append(now, msg.type(), String.valueOf(msg.object()));
+                    break;
+            }
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed writing journal, disabling it.", ex);
+            journal.close();
+            this.journal = null;
+        }
     }
 
     boolean start() throws BadEnvironmentException, IOException {
         if (currentProcess != null) {
-            postMessage(Message.obtain(Message.Type.PROCESS_STARTED, "[already started]"));
+            postMessage(Message.obtain(Message.Type.PROCESS_STARTED, currentPid, "[already started]"));
             return false;
         }
 
         if (env == null)
             throw new BadEnvironmentException("Missing environment!");
 
-        reloadEnv();
+        StartupTrace.begin(StartupTrace.ENV_PREPARATION);
+        try {
+            reloadEnv();
+        } finally {
+            StartupTrace.end(StartupTrace.ENV_PREPARATION);
+        }
+
+        if (Prefs.getBoolean(Aria2PK.SAVE_SESSION) && Prefs.getBoolean(Aria2PK.COMPACT_SESSION))
+            compactSession();
+
+        if (rpcClient == null) {
+            rpcClient = Aria2RpcClient.forEmbedded();
+            rpcClient.setNotificationListener(this::handleRpcNotification);
+        }
+
+        if (logBatcher != null) logBatcher.close();
+        int batchWindow = Prefs.getInt(Aria2PK.LOG_BATCH_WINDOW, 0);
+        if (batchWindow > 0)
+            logBatcher = new LogBatcher(batchWindow, Math.max(1, Prefs.getInt(Aria2PK.LOG_BATCH_MAX_LINES, 200)),
+                    batch -> postMessage(Message.obtain(Message.Type.PROCESS_LOG_BATCH, batch.size(), batch)));
+        else
+            logBatcher = null;
+
+        if (logFolder != null) logFolder.close();
+        int foldWindow = Math.max(0, Prefs.getInt(Aria2PK.LOG_FOLD_WINDOW, 2000));
+        int rateLimit = Math.max(0, Prefs.getInt(Aria2PK.LOG_RATE_LIMIT, 0));
+        if (foldWindow > 0 || rateLimit > 0)
+            logFolder = new LogFolder(foldWindow, rateLimit, new LogFolder.Sink() {
+                @Override
+                public void onLine(@NonNull Message.Type type, @NonNull String line, int repeats) {
+                    deliverLine(type, line, repeats);
+                }
+
+                @Override
+                public void onDropped(@NonNull Message.Type type, @NonNull String line) {
+                    writeJournal(type, line);
+                }
+            });
+        else
+            logFolder = null;
 
         String execPath = env.execPath();
         String[] params = env.startArgs();
 
+        int pid;
         synchronized (processLock) {
-            currentProcess = execWithParams(true, params);
-            new Thread(new Waiter(currentProcess), "aria2android-waiterThread").start();
+            Set<Integer> previousChildren = ProcSampler.childPids(android.os.Process.myPid(), execPath);
+
+            StartupTrace.begin(StartupTrace.SPAWN);
+            try {
+                currentProcess = execWithParams(true, params);
+            } finally {
+                StartupTrace.end(StartupTrace.SPAWN);
+            }
+
+            spawnedAt = System.nanoTime();
+
+            StartupTrace.begin(StartupTrace.FIRST_OUTPUT);
+            awaitingFirstLine = true;
+            currentPid = pid = pidOf(execPath, params, previousChildren);
+            runningParams = new HashMap<>(env.params);
+            new Thread(waiter = new Waiter(currentProcess), "aria2android-waiterThread").start();
             new Thread(this.inputWatcher = new StreamWatcher(currentProcess.getInputStream()), "aria2-android-inputWatcherThread").start();
             new Thread(this.errorWatcher = new StreamWatcher(currentProcess.getErrorStream()), "aria2-android-errorWatcherThread").start();
         }
 
+        startReadinessProbe(env.rpcPort(), spawnedAt);
+
         if (Prefs.getBoolean(Aria2PK.SHOW_PERFORMANCE))
-            new Thread(this.monitor = new Monitor(), "aria2android-monitorThread").start();
+            new Thread(this.monitor = new Monitor(pid), "aria2android-monitorThread").start();
 
-        postMessageDelayed(Message.obtain(Message.Type.PROCESS_STARTED, startCommandForLog(execPath, params)), 500 /* Ensure service is started */);
+        postMessage(Message.obtain(Message.Type.PROCESS_STARTED, pid, startCommandForLog(execPath, params)));
         return true;
     }
 
+    private void compactSession() {
+        StartupTrace.begin(StartupTrace.SESSION_COMPACTION);
+        try {
+            SessionCompactor.Result result = SessionCompactor.compact(env.session, env.params.get("--dir"),
+                    Prefs.getLong(Aria2PK.LAST_RPC_READY_MILLIS, 0));
+            if (result.removed() > 0)
+                postMessage(Message.obtain(Message.Type.SESSION_COMPACTED, (int) result.removed(), result.toString()));
+            else
+                Log.d(TAG, result.toString());
+        } catch (IOException ex) {
+            Log.e(TAG, "Failed compacting session, starting with the original one.", ex);
+        } finally {
+            StartupTrace.end(StartupTrace.SESSION_COMPACTION);
+        }
+    }
+
+    /**
+     * Posts {@link Message.Type#RPC_READY} with the spawn-to-ready latency in milliseconds once aria2c accepts RPC connections.
+     */
+    private void startReadinessProbe(int port, long spawnedAt) {
+        if (readinessProbe != null) readinessProbe.close();
+
+        StartupTrace.begin(StartupTrace.RPC_ACCEPTING);
+        readinessProbe = new RpcReadinessProbe(port, RPC_READINESS_SLOW_MS, spawnedAt, new RpcReadinessProbe.Listener() {
+            @Override
+            public void onReady(long elapsedMillis) {
+                StartupTrace.end(StartupTrace.RPC_ACCEPTING);
+                Prefs.putLong(Aria2PK.LAST_RPC_READY_MILLIS, elapsedMillis);
+                postMessage(Message.obtain(Message.Type.RPC_READY, (int) elapsedMillis));
+            }
+
+            @Override
+            public void onSlow() {
+                Log.w(TAG, "RPC server didn't accept connections within " + RPC_READINESS_SLOW_MS + "ms, still waiting.");
+            }
+        });
+        new Thread(readinessProbe, "aria2-rpcReadinessProbe").start();
+    }
+
+    /**
+     * Applies the current environment to the running process. Options accepted by {@code aria2.changeGlobalOption} are changed live,
+     * if any other option changed or if the live change failed a restart is required, see {@link Aria2Service#restartService(android.content.Context)}.
+     * The process is never restarted from here. The outcome is also posted as {@link Message.Type#RECONFIGURED}.
+     */
+    @WorkerThread
+    @NonNull
+    public synchronized Reconfiguration reconfigure() throws BadEnvironmentException, IOException {
+        Map<String, String> running = runningParams;
+        if (running == null) return Reconfiguration.NOT_RUNNING;
+
+        reloadEnv();
+        Reconfiguration result = Reconfiguration.diff(running, env.params);
+        if (!result.restartRequired() && !result.changed.isEmpty()) {
+            try {
+                changeGlobalOption(result.changed);
+                runningParams = Reconfiguration.applied(running, env.params);
+            } catch (IOException ex) {
+                Log.w(TAG, "Failed changing options live.", ex);
+                result = result.restartRequiredBecause("aria2.changeGlobalOption failed: " + ex.getMessage());
+            }
+        }
+
+        if (!result.isEmpty())
+            postMessage(Message.obtain(Message.Type.RECONFIGURED, result.changed.size(), result.toString()));
+
+        return result;
+    }
+
+    private void changeGlobalOption(@NonNull Map<String, String> options) throws IOException {
+        Aria2RpcClient client = rpcClient;
+        if (client == null) throw new IOException("Missing RPC client!");
+
+        CountDownLatch latch = new CountDownLatch(1);
+        Exception[] error = new Exception[1];
+        client.call("aria2.changeGlobalOption", new JSONArray().put(new JSONObject(options)), new Aria2RpcClient.Callback() {
+            @Override
+            public void onResult(@Nullable Object result) {
+                latch.countDown();
+            }
+
+            @Override
+            public void onException(@NonNull Exception ex) {
+                error[0] = ex;
+                latch.countDown();
+            }
+        });
+
+        try {
+            if (!latch.await(RECONFIGURE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                throw new IOException("Timed out");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+
+        if (error[0] instanceof IOException) throw (IOException) error[0];
+        else if (error[0] != null) throw new IOException(error[0].getMessage(), error[0]);
+    }
+
+    /**
+     * Stops the process, waits for its termination to be handled and starts it again with the current environment.
+     * Called by {@link Aria2Service} so that its state follows the process.
+     *
+     * @return whether the process has been started again
+     */
+    @WorkerThread
+    synchronized boolean restart() throws BadEnvironmentException, IOException {
+        Waiter waiter;
+        synchronized (processLock) {
+            waiter = this.waiter;
+        }
+
+        stop();
+        if (waiter != null && !waiter.await(RECONFIGURE_TIMEOUT_MS))
+            throw new IOException("aria2c didn't terminate in time!");
+
+        return start();
+    }
+
     private void reloadEnv() throws BadEnvironmentException {
         if (env == null)
             throw new BadEnvironmentException("Missing environment!");
@@ -235,6 +504,9 @@ public final class Aria2 {
     }
 
     private void processTerminated(int code) {
+        if (logFolder != null) logFolder.flush();
+        if (logBatcher != null) logBatcher.flush();
+
         postMessage(Message.obtain(Message.Type.PROCESS_TERMINATED, code));
 
         if (monitor != null) {
@@ -260,36 +532,59 @@ public final class Aria2 {
     }
 
     private void postMessage(@NonNull Message message) {
-        message.delay = 0;
-        messageHandler.queue.add(message);
         message.log(TAG);
+        messageHandler.post(message);
     }
 
-    private void postMessageDelayed(@NonNull Message message, int millis) {
-        message.delay = millis;
-        messageHandler.queue.add(message);
-        message.log(TAG);
+    @NonNull
+    public DispatchStats dispatchStats() {
+        return messageHandler.stats();
     }
 
-    private void handleStreamMessage(@NonNull String line) {
-        if (line.startsWith("WARNING: ")) {
-            postMessage(Message.obtain(Message.Type.PROCESS_WARN, line.substring(9)));
-        } else if (line.startsWith("ERROR: ")) {
-            postMessage(Message.obtain(Message.Type.PROCESS_ERROR, line.substring(7)));
-        } else {
-            String clean;
-            Matcher matcher = INFO_MESSAGE_PATTERN.matcher(line);
-            if (matcher.find()) clean = matcher.group(1);
-            else clean = line;
-            postMessage(Message.obtain(Message.Type.PROCESS_INFO, clean));
+    private void postLine(@NonNull Message.Type type, @NonNull String line) {
+        if (awaitingFirstLine) {
+            awaitingFirstLine = false;
+            StartupTrace.end(StartupTrace.FIRST_OUTPUT);
         }
+
+        RpcReadinessProbe probe = readinessProbe;
+        if (probe != null) probe.onOutputLine(line);
+
+        LogFolder folder = logFolder;
+        if (folder == null || !folder.add(type, line))
+            deliverLine(type, line, 0);
+    }
+
+    /**
+     * @param repeats how many identical lines have been folded into this one, carried as the message integer
+     */
+    private void deliverLine(@NonNull Message.Type type, @NonNull String line, int repeats) {
+        LogBatcher batcher = logBatcher;
+        if (batcher == null || !batcher.add(type, line, repeats))
+            postMessage(Message.obtain(type, repeats, line));
+    }
+
+    private void handleRpcNotification(@NonNull String method, @NonNull String gid) {
+        Message.Type type = Message.Type.fromNotification(method);
+        if (type != null) postMessage(Message.obtain(type, gid));
     }
 
     void stop() {
+        if (readinessProbe != null) {
+            readinessProbe.close();
+            readinessProbe = null;
+        }
+
+        awaitingFirstLine = false;
+        runningParams = null;
+        StartupTrace.cancel(StartupTrace.FIRST_OUTPUT);
+        StartupTrace.cancel(StartupTrace.RPC_ACCEPTING);
+
         synchronized (processLock) {
             if (currentProcess != null) {
                 currentProcess.destroy();
                 currentProcess = null;
+                currentPid = -1;
             }
         }
     }
@@ -303,25 +598,94 @@ public final class Aria2 {
         return currentProcess != null;
     }
 
+    /**
+     * @return the PID of the running aria2c process or -1
+     */
+    public int pid() {
+        return currentPid;
+    }
+
     public interface MessageListener {
         void onMessage(@NonNull Message msg);
     }
 
+    public static final class DispatchStats {
+        public final int queueDepth;
+        public final long dispatched;
+        public final long avgLatencyMicros;
+        public final long maxLatencyMicros;
+
+        private DispatchStats(int queueDepth, long dispatched, long avgLatencyMicros, long maxLatencyMicros) {
+            this.queueDepth = queueDepth;
+            this.dispatched = dispatched;
+            this.avgLatencyMicros = avgLatencyMicros;
+            this.maxLatencyMicros = maxLatencyMicros;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "DispatchStats{queueDepth=" + queueDepth + ", dispatched=" + dispatched
+                    + ", avgLatencyMicros=" + avgLatencyMicros + ", maxLatencyMicros=" + maxLatencyMicros + '}';
+        }
+    }
+
+    /**
+     * Dispatches messages on a single thread, in posting order.
+     */
     private static class MessageHandler implements Runnable, Closeable {
-        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
-        private final List<MessageListener> listeners = new ArrayList<>();
+        private final Object lock = new Object();
+        private final ArrayDeque<Message> ready = new ArrayDeque<>();
+        private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
         private volatile boolean shouldStop = false;
+        private long dispatched = 0;
+        private long totalLatencyNanos = 0;
+        private long maxLatencyNanos = 0;
+
+        void post(@NonNull Message msg) {
+            synchronized (lock) {
+                msg.postedAt = System.nanoTime();
+                ready.add(msg);
+                lock.notify();
+            }
+        }
+
+        @NonNull
+        DispatchStats stats() {
+            synchronized (lock) {
+                long avg = dispatched == 0 ? 0 : totalLatencyNanos / dispatched;
+                return new DispatchStats(ready.size(), dispatched,
+                        TimeUnit.NANOSECONDS.toMicros(avg), TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos));
+            }
+        }
+
+        @NonNull
+        private Message next() throws InterruptedException {
+            synchronized (lock) {
+                while (true) {
+                    Message msg = ready.poll();
+                    if (msg != null) {
+                        long latency = System.nanoTime() - msg.postedAt;
+                        dispatched++;
+                        totalLatencyNanos += latency;
+                        if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+                        return msg;
+                    }
+
+                    if (shouldStop) throw new InterruptedException("Handler closed.");
+
+                    lock.wait();
+                }
+            }
+        }
 
         @Override
         public void run() {
             while (!shouldStop) {
                 try {
-                    Message msg = queue.take();
+                    Message msg = next();
 
-                    if (msg.delay > 0)
-                        Thread.sleep(msg.delay);
-
-                    for (MessageListener listener : new ArrayList<>(listeners))
+                    for (MessageListener listener : listeners)
                         listener.onMessage(msg);
 
                     msg.recycle();
@@ -334,7 +698,10 @@ public final class Aria2 {
 
         @Override
         public void close() {
-            shouldStop = true;
+            synchronized (lock) {
+                shouldStop = true;
+                lock.notify();
+            }
         }
     }
 
@@ -344,7 +711,7 @@ public final class Aria2 {
         private final File session;
         private final Map<String, String> params;
 
-        Env(@NonNull File parent, @NonNull File exec, @NonNull File session, @Nullable File cacerts) {
+        Env(@NonNull File parent, @NonNull File exec, @NonNull File session, @Nullable File cacerts, @NonNull Map<String, String> customOptions) {
             this.parent = parent;
             this.exec = exec;
             this.session = session;
@@ -354,15 +721,10 @@ public final class Aria2 {
             if (Prefs.getBoolean(Aria2PK.SAVE_SESSION))
                 params.put("--save-session-interval", "30");
 
-            String dns1 = getprop("net.dns1");
-            String dns2 = getprop("net.dns2");
-            if (dns1 != null || dns2 != null) {
-                String dnsString = dns1 != null ? dns1 : dns2;
-                if (dns1 != null) dnsString += "," + dns1;
-                else dnsString += "," + dns2;
-
+            List<String> dnsServers = DnsDiscovery.servers();
+            if (!dnsServers.isEmpty()) {
                 params.put("--async-dns", "true");
-                params.put("--async-dns-server", dnsString);
+                params.put("--async-dns-server", TextUtils.join(",", dnsServers));
             }
 
             if (Prefs.getBoolean(Aria2PK.CHECK_CERTIFICATE) && cacerts != null) {
@@ -372,7 +734,7 @@ public final class Aria2 {
                 params.put("--check-certificate", "false");
             }
 
-            loadCustomOptions(params);
+            params.putAll(customOptions);
 
             // Cannot be overridden
             params.put("--daemon", "false");
@@ -390,21 +752,6 @@ public final class Aria2 {
             }
         }
 
-        private static void loadCustomOptions(@NonNull Map<String, String> options) {
-            try {
-                JSONObject obj = JsonStoring.intoPrefs().getJsonObject(Aria2PK.CUSTOM_OPTIONS);
-                if (obj == null) return;
-
-                Iterator<String> iterator = obj.keys();
-                while (iterator.hasNext()) {
-                    String key = iterator.next();
-                    options.put("--" + key, obj.getString(key));
-                }
-            } catch (JSONException ex) {
-                Log.e(TAG, "Failed loading custom options.", ex);
-            }
-        }
-
         @NonNull
         String[] startArgs() {
             String[] args = new String[params.size()];
@@ -425,6 +772,10 @@ public final class Aria2 {
             return exec.getAbsolutePath();
         }
 
+        int rpcPort() {
+            return Integer.parseInt(params.get("--rpc-listen-port"));
+        }
+
         boolean delete() {
             return session.delete();
         }
@@ -435,13 +786,13 @@ public final class Aria2 {
         static final Pattern TOP_NEW_PATTERN = Pattern.compile("(\\d+)\\s+(\\d+\\.\\d+)\\s+([\\d|.]+?.)\\s+(.*)$");
         static final TopParser OLD_PARSER = new TopParser(TOP_OLD_PATTERN, 1, 3, 7) {
             @Override
-            boolean matches(@NonNull String line) {
+            boolean matchesName(@NonNull String line) {
                 return line.endsWith("aria2c.so");
             }
 
             @NonNull
             @Override
-            String getCommand(int delaySec) {
+            String getCommand(int delaySec, int pid) {
                 return "top -d " + delaySec;
             }
 
@@ -478,15 +829,18 @@ public final class Aria2 {
             }
 
             @Override
-            boolean matches(@NonNull String line) {
+            boolean matchesName(@NonNull String line) {
                 return line.contains("aria2c");
             }
 
             @SuppressLint("DefaultLocale")
             @NonNull
             @Override
-            String getCommand(int delaySec) {
-                return String.format("top -d %d -q -b -o PID,%%CPU,RES,CMDLINE", delaySec);
+            String getCommand(int delaySec, int pid) {
+                if (pid > 0)
+                    return String.format("top -d %d -q -b -p %d -o PID,%%CPU,RES,CMDLINE", delaySec, pid);
+                else
+                    return String.format("top -d %d -q -b -o PID,%%CPU,RES,CMDLINE", delaySec);
             }
         };
         private final Pattern pattern;
@@ -514,39 +868,63 @@ public final class Aria2 {
 
         abstract int getMemoryBytes(@NonNull String match);
 
-        abstract boolean matches(@NonNull String line);
+        /**
+         * Matches only the row of the given process, the PID is always the first column.
+         */
+        final boolean matches(@NonNull String line, int pid) {
+            if (pid <= 0) return matchesName(line);
+
+            int i = 0;
+            int len = line.length();
+            while (i < len && line.charAt(i) == ' ') i++;
+
+            int value = 0;
+            int start = i;
+            while (i < len && Character.isDigit(line.charAt(i)))
+                value = value * 10 + (line.charAt(i++) - '0');
+
+            return i > start && value == pid && (i == len || Character.isWhitespace(line.charAt(i)));
+        }
+
+        abstract boolean matchesName(@NonNull String line);
 
         @NonNull
-        abstract String getCommand(int delaySec);
+        abstract String getCommand(int delaySec, int pid);
     }
 
     private class StreamWatcher implements Runnable, Closeable {
         private final InputStream stream;
-        private volatile boolean shouldStop = false;
+        private final OutputReader reader;
 
         StreamWatcher(@NonNull InputStream stream) {
             this.stream = stream;
+            this.reader = new OutputReader(stream);
         }
 
         @Override
         public void run() {
-            try (Scanner scanner = new Scanner(stream)) {
-                while (!shouldStop && scanner.hasNextLine()) {
-                    String line = scanner.nextLine();
-                    if (!line.isEmpty()) handleStreamMessage(line);
-                }
+            try (InputStream ignored = stream) {
+                reader.read(Aria2.this::postLine);
+            } catch (IOException ex) {
+                Log.d(TAG, "Stream watcher stopped: " + ex.getMessage());
             }
         }
 
         @Override
         public void close() {
-            shouldStop = true;
+            reader.stop();
         }
     }
 
     private class Monitor implements Runnable, Closeable {
         private final byte[] INVALID_STRING = "Invalid argument".getBytes();
+        private final int pid;
         private volatile boolean shouldStop = false;
+        private volatile long[] globalStat = null;
+
+        Monitor(int pid) {
+            this.pid = pid;
+        }
 
         @Nullable
         private TopParser selectPattern() throws IOException, InterruptedException {
@@ -571,8 +949,85 @@ public final class Aria2 {
             }
         }
 
+        /**
+         * Requests the global stats asynchronously, the result is attached to the next update.
+         */
+        private void pollGlobalStat() {
+            Aria2RpcClient client = rpcClient;
+            if (client == null || !client.isConnected()) {
+                globalStat = null;
+                return;
+            }
+
+            client.call("aria2.getGlobalStat", null, new Aria2RpcClient.Callback() {
+                @Override
+                public void onResult(@Nullable Object result) {
+                    if (!(result instanceof JSONObject)) return;
+
+                    JSONObject obj = (JSONObject) result;
+                    try {
+                        globalStat = new long[]{
+                                Long.parseLong(obj.optString("downloadSpeed", "0")),
+                                Long.parseLong(obj.optString("uploadSpeed", "0")),
+                                Long.parseLong(obj.optString("numActive", "0")),
+                                Long.parseLong(obj.optString("numWaiting", "0")),
+                                Long.parseLong(obj.optString("numStopped", "0"))
+                        };
+                    } catch (NumberFormatException ex) {
+                        Log.w(TAG, "Invalid global stat: " + obj, ex);
+                    }
+                }
+
+                @Override
+                public void onException(@NonNull Exception ex) {
+                    globalStat = null;
+                }
+            });
+        }
+
+        @NonNull
+        private MonitorUpdate withGlobalStat(@NonNull MonitorUpdate update) {
+            long[] stat = globalStat;
+            if (stat != null) update.setGlobalStat(stat[0], stat[1], (int) stat[2], (int) stat[3], (int) stat[4]);
+            pollGlobalStat();
+            return update;
+        }
+
         @Override
         public void run() {
+            if (pid > 0) {
+                ProcSampler sampler = new ProcSampler(pid);
+                if (sampler.available()) {
+                    runSampler(sampler);
+                    return;
+                }
+            }
+
+            Log.w(TAG, "Cannot sample /proc for PID " + pid + ", falling back to `top`.");
+            runTop();
+        }
+
+        private void runSampler(@NonNull ProcSampler sampler) {
+            long delay = TimeUnit.SECONDS.toMillis(Prefs.getInt(Aria2PK.NOTIFICATION_UPDATE_DELAY, 1));
+
+            try {
+                sampler.sample();
+                while (!shouldStop) {
+                    Thread.sleep(delay);
+                    if (shouldStop) break;
+
+                    MonitorUpdate update = sampler.sample();
+                    if (update != null)
+                        postMessage(Message.obtain(Message.Type.MONITOR_UPDATE, withGlobalStat(update)));
+                }
+            } catch (IOException ex) {
+                if (!shouldStop) monitorFailed(ex);
+            } catch (InterruptedException ex) {
+                Log.w(TAG, ex);
+            }
+        }
+
+        private void runTop() {
             TopParser parser;
             try {
                 parser = selectPattern();
@@ -587,14 +1042,14 @@ public final class Aria2 {
 
             Process process = null;
             try {
-                process = Runtime.getRuntime().exec(parser.getCommand(Prefs.getInt(Aria2PK.NOTIFICATION_UPDATE_DELAY, 1)));
+                process = Runtime.getRuntime().exec(parser.getCommand(Prefs.getInt(Aria2PK.NOTIFICATION_UPDATE_DELAY, 1), pid));
                 try (Scanner scanner = new Scanner(process.getInputStream())) {
                     while (!shouldStop && scanner.hasNextLine()) {
                         String line = scanner.nextLine();
-                        if (parser.matches(line)) {
+                        if (parser.matches(line, pid)) {
                             MonitorUpdate update = parser.parseLine(line);
                             if (update != null)
-                                postMessage(Message.obtain(Message.Type.MONITOR_UPDATE, update));
+                                postMessage(Message.obtain(Message.Type.MONITOR_UPDATE, withGlobalStat(update)));
                         }
                     }
                 }
@@ -613,6 +1068,7 @@ public final class Aria2 {
 
     private class Waiter implements Runnable {
         private final Process process;
+        private final CountDownLatch done = new CountDownLatch(1);
 
         Waiter(@NonNull Process process) {
             this.process = process;
@@ -626,6 +1082,20 @@ public final class Aria2 {
             } catch (InterruptedException ex) {
                 processTerminated(999);
                 Log.w(TAG, ex);
+            } finally {
+                done.countDown();
+            }
+        }
+
+        /**
+         * @return whether the termination has been handled within the timeout
+         */
+        boolean await(long timeoutMillis) {
+            try {
+                return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
             }
         }
     }
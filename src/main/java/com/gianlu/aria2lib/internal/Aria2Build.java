@@ -0,0 +1,113 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Version and enabled features of an aria2c binary as printed by {@code aria2c -v}, tied to the path, size and
+ * modification time of the binary so that it can be cached until the binary changes.
+ */
+public final class Aria2Build {
+    private static final String VERSION_PREFIX = "aria2 version ";
+    private static final String FEATURES_PREFIX = "Enabled Features:";
+    public final String version;
+    public final List<String> features;
+    private final String path;
+    private final long size;
+    private final long lastModified;
+
+    private Aria2Build(@NonNull String path, long size, long lastModified, @NonNull String version, @NonNull List<String> features) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.version = version;
+        this.features = Collections.unmodifiableList(features);
+    }
+
+    /**
+     * @param output the whole output of {@code aria2c -v}
+     */
+    @NonNull
+    static Aria2Build parse(@NonNull File exec, @NonNull String output) {
+        String version = "";
+        List<String> features = new ArrayList<>();
+        for (String line : output.split("\n")) {
+            line = line.trim();
+            if (version.isEmpty() && !line.isEmpty()) {
+                version = line;
+            } else if (line.startsWith(FEATURES_PREFIX)) {
+                for (String feature : line.substring(FEATURES_PREFIX.length()).split(",")) {
+                    feature = feature.trim();
+                    if (!feature.isEmpty()) features.add(feature);
+                }
+            }
+        }
+
+        return new Aria2Build(exec.getAbsolutePath(), exec.length(), exec.lastModified(), version, features);
+    }
+
+    /**
+     * @return the cached build or {@code null} if it is missing, invalid or belongs to another binary
+     */
+    @Nullable
+    static Aria2Build fromJson(@Nullable String json, @NonNull File exec) {
+        if (json == null || json.isEmpty()) return null;
+
+        try {
+            JSONObject obj = new JSONObject(json);
+            JSONArray array = obj.getJSONArray("features");
+            List<String> features = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) features.add(array.getString(i));
+
+            Aria2Build build = new Aria2Build(obj.getString("path"), obj.getLong("size"), obj.getLong("lastModified"), obj.getString("version"), features);
+            return build.matches(exec) ? build : null;
+        } catch (JSONException ex) {
+            return null;
+        }
+    }
+
+    boolean matches(@NonNull File exec) {
+        return path.equals(exec.getAbsolutePath()) && size == exec.length() && lastModified == exec.lastModified();
+    }
+
+    @NonNull
+    String toJson() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("path", path);
+        obj.put("size", size);
+        obj.put("lastModified", lastModified);
+        obj.put("version", version);
+        obj.put("features", new JSONArray(features));
+        return obj.toString();
+    }
+
+    /**
+     * @return the version number, e.g. "1.36.0", or the whole version line if it can't be extracted
+     */
+    @NonNull
+    public String versionNumber() {
+        return version.startsWith(VERSION_PREFIX) ? version.substring(VERSION_PREFIX.length()).trim() : version;
+    }
+
+    public boolean hasFeature(@NonNull String feature) {
+        for (String f : features)
+            if (f.equalsIgnoreCase(feature)) return true;
+
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "Aria2Build{version='" + version + "', features=" + features + '}';
+    }
+}
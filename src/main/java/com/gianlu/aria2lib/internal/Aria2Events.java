@@ -0,0 +1,82 @@
+package com.gianlu.aria2lib.internal;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process delivery of the {@link Aria2Service} messages: subscribers receive immutable {@link Event}s on the main looper,
+ * without going through an {@link android.content.Intent} and serializing the payload.
+ */
+public final class Aria2Events {
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private static volatile Handler mainHandler;
+
+    private Aria2Events() {
+    }
+
+    @AnyThread
+    public static void subscribe(@NonNull Listener listener) {
+        if (!listeners.contains(listener)) listeners.add(listener);
+    }
+
+    @AnyThread
+    public static void unsubscribe(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    static boolean hasSubscribers() {
+        return !listeners.isEmpty();
+    }
+
+    @NonNull
+    private static Handler mainHandler() {
+        if (mainHandler == null) mainHandler = new Handler(Looper.getMainLooper());
+        return mainHandler;
+    }
+
+    /**
+     * Copies the message into an {@link Event} and posts it to the subscribers, the message itself can be recycled right after.
+     */
+    static void post(@NonNull Message msg) {
+        if (listeners.isEmpty()) return;
+
+        Object o = msg.object();
+        if (o instanceof MonitorUpdate) o = ((MonitorUpdate) o).snapshot();
+
+        Event event = new Event(msg.type(), msg.integer(), o);
+        mainHandler().post(() -> {
+            for (Listener listener : listeners) listener.onEvent(event);
+        });
+    }
+
+    public interface Listener {
+        @UiThread
+        void onEvent(@NonNull Event event);
+    }
+
+    public static final class Event {
+        public final Message.Type type;
+        public final int i;
+        public final Object o;
+
+        Event(@NonNull Message.Type type, int i, @Nullable Object o) {
+            this.type = type;
+            this.i = i;
+            this.o = o;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Event{type=" + type + ", i=" + i + ", o=" + o + '}';
+        }
+    }
+}
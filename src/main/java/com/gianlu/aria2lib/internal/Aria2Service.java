@@ -19,6 +19,7 @@ import android.os.Messenger;
 import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.util.Log;
+import android.view.View;
 import android.widget.RemoteViews;
 
 import androidx.annotation.NonNull;
@@ -36,21 +37,29 @@ import com.gianlu.commonutils.analytics.AnalyticsApplication;
 import com.gianlu.commonutils.preferences.Prefs;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.util.Objects;
 
 public final class Aria2Service extends Service implements Aria2.MessageListener {
     public static final String ACTION_START_SERVICE = Aria2Service.class.getCanonicalName() + ".START";
     public static final String ACTION_STOP_SERVICE = Aria2Service.class.getCanonicalName() + ".STOP";
+    public static final String ACTION_RESTART_SERVICE = Aria2Service.class.getCanonicalName() + ".RESTART";
+    /**
+     * Carries a message encoded by {@link MessageCodec}, use {@link MessageCodec#decode(Intent)} to read it back.
+     */
     public static final String BROADCAST_MESSAGE = Aria2Service.class.getCanonicalName() + ".BROADCAST_MESSAGE";
     public static final String BROADCAST_STATUS = Aria2Service.class.getCanonicalName() + ".BROADCAST_STATUS";
     public static final int MESSAGE_STATUS = 2;
     public static final int MESSAGE_STOP = 3;
     private static final int MESSAGE_START = 4;
+    private static final int MESSAGE_RESTART = 5;
     private static final String CHANNEL_ID = "aria2service";
     private static final String SERVICE_NAME = "Service for aria2";
     private static final int NOTIFICATION_ID = 69;
     private static final String TAG = Aria2Service.class.getSimpleName();
+    private static final int TRANSFER_HISTORY_SIZE = 3600;
+    private static final TransferHistory transferHistory = new TransferHistory(TRANSFER_HISTORY_SIZE);
+    private static volatile boolean broadcastMessages = true;
+    private static volatile boolean legacyBroadcastExtras = false;
     private final HandlerThread serviceThread = new HandlerThread("aria2-service");
     private Messenger messenger;
     private LocalBroadcastManager broadcastManager;
@@ -66,6 +75,7 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
 
     public static void startService(@NonNull Context context) {
         new Handler(Looper.getMainLooper()).post(() -> {
+            StartupTrace.begin(StartupTrace.INTENT);
             ContextCompat.startForegroundService(context, new Intent(context, Aria2Service.class)
                     .setAction(ACTION_START_SERVICE));
 
@@ -78,6 +88,38 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
                 .setAction(ACTION_STOP_SERVICE));
     }
 
+    /**
+     * Restarts aria2c with the current environment if it's running, see {@link Aria2#reconfigure()}.
+     */
+    public static void restartService(@NonNull Context context) {
+        context.startService(new Intent(context, Aria2Service.class)
+                .setAction(ACTION_RESTART_SERVICE));
+    }
+
+    /**
+     * @return the global stats sampled by the monitor, one sample per update interval
+     */
+    @NonNull
+    public static TransferHistory transferHistory() {
+        return transferHistory;
+    }
+
+    /**
+     * Whether messages are also sent as {@link #BROADCAST_MESSAGE} broadcasts, in-process subscribers
+     * of {@link Aria2Events} receive them regardless. Enabled by default.
+     */
+    public static void setMessageBroadcasts(boolean enabled) {
+        broadcastMessages = enabled;
+    }
+
+    /**
+     * Whether {@link #BROADCAST_MESSAGE} carries the legacy serializable {@code type} and {@code o} extras instead of
+     * the primitive ones, for receivers that cast them. Disabled by default.
+     */
+    public static void setLegacyBroadcastExtras(boolean enabled) {
+        legacyBroadcastExtras = enabled;
+    }
+
     @NonNull
     private static BareConfigProvider loadProvider() {
         String classStr = Prefs.getString(Aria2PK.BARE_CONFIG_PROVIDER, null);
@@ -118,6 +160,7 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
         super.onCreate();
 
         Prefs.init(this);
+        DnsDiscovery.init(this);
 
         aria2 = Aria2.get();
         aria2.addListener(this);
@@ -130,10 +173,17 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
 
         PreferenceManager.getDefaultSharedPreferences(this).registerOnSharedPreferenceChangeListener(reinitializeNotificationListener);
 
-        try {
-            Log.d(TAG, aria2.version());
-        } catch (BadEnvironmentException | IOException ex) {
-            Log.e(TAG, "Failed getting aria2 version.", ex);
+        Aria2Build build = aria2.cachedBuild();
+        if (build != null) {
+            Log.d(TAG, build.version);
+        } else {
+            new Thread(() -> {
+                try {
+                    Log.d(TAG, aria2.version());
+                } catch (BadEnvironmentException | IOException ex) {
+                    Log.e(TAG, "Failed getting aria2 version.", ex);
+                }
+            }, "aria2-versionProbe").start();
         }
     }
 
@@ -165,6 +215,8 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
         if (intent != null) {
             if (Objects.equals(intent.getAction(), ACTION_START_SERVICE)) {
                 AnalyticsApplication.setCrashlyticsLong("aria2service_intentReceivedTime", System.currentTimeMillis());
+                StartupTrace.end(StartupTrace.INTENT);
+                StartupTrace.begin(StartupTrace.ON_START_COMMAND);
 
                 try {
                     if (messenger == null) messenger = new Messenger(new LocalHandler(this));
@@ -182,6 +234,16 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
                 }
             } else if (Objects.equals(intent.getAction(), ACTION_STOP_SERVICE)) {
                 stop();
+            } else if (Objects.equals(intent.getAction(), ACTION_RESTART_SERVICE) && aria2.isRunning()) {
+                if (messenger == null) messenger = new Messenger(new LocalHandler(this));
+
+                try {
+                    messenger.send(Message.obtain(null, MESSAGE_RESTART));
+                } catch (RemoteException ex) {
+                    Log.e(TAG, "Failed restarting executable on service thread!", ex);
+                }
+
+                return START_NOT_STICKY;
             }
         }
 
@@ -200,6 +262,7 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
 
     private void start() throws IOException, BadEnvironmentException {
         AnalyticsApplication.setCrashlyticsLong("aria2service_startedAt", System.currentTimeMillis());
+        StartupTrace.end(StartupTrace.ON_START_COMMAND);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) createChannel();
         startForeground(NOTIFICATION_ID, defaultNotification.build());
@@ -210,15 +273,26 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
         AnalyticsApplication.setCrashlyticsLong("aria2service_startedAt_return", System.currentTimeMillis());
     }
 
+    private void restart() throws IOException, BadEnvironmentException {
+        if (!aria2.isRunning()) return;
+
+        if (aria2.restart()) startTime = System.currentTimeMillis();
+        dispatchStatus();
+    }
+
     @Override
     public void onMessage(@NonNull com.gianlu.aria2lib.internal.Message msg) {
-        dispatch(msg);
+        Aria2Events.post(msg);
+        if (broadcastMessages) dispatch(msg);
 
         if (msg.type() == com.gianlu.aria2lib.internal.Message.Type.MONITOR_UPDATE)
             updateMonitor((MonitorUpdate) msg.object());
     }
 
     private void updateMonitor(@Nullable MonitorUpdate update) {
+        if (update != null && update.hasGlobalStat())
+            transferHistory.add(System.currentTimeMillis(), update);
+
         if (update == null || notificationManager == null || !aria2.isRunning()) {
             if (update != null) update.recycle();
             return;
@@ -229,6 +303,13 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
         layout.setTextViewText(R.id.customNotification_pid, "PID: " + update.pid());
         layout.setTextViewText(R.id.customNotification_cpu, "CPU: " + update.cpu() + "%");
         layout.setTextViewText(R.id.customNotification_memory, "Memory: " + CommonUtils.dimensionFormatter(update.rss(), false));
+        if (update.hasGlobalStat()) {
+            layout.setViewVisibility(R.id.customNotification_speed, View.VISIBLE);
+            layout.setTextViewText(R.id.customNotification_speed, "Download: " + CommonUtils.dimensionFormatter(update.downloadSpeed(), false) + "/s, Upload: "
+                    + CommonUtils.dimensionFormatter(update.uploadSpeed(), false) + "/s, Active: " + update.numActive());
+        } else {
+            layout.setViewVisibility(R.id.customNotification_speed, View.GONE);
+        }
         layout.setImageViewResource(R.id.customNotification_icon, provider.launcherIcon());
         layout.setImageViewResource(R.id.customNotification_stop, R.drawable.baseline_clear_24);
         layout.setOnClickPendingIntent(R.id.customNotification_stop, getStopServiceIntent());
@@ -241,9 +322,8 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
 
     private void dispatch(@NonNull com.gianlu.aria2lib.internal.Message msg) {
         Intent intent = new Intent(BROADCAST_MESSAGE);
-        intent.putExtra("type", msg.type());
-        intent.putExtra("i", msg.integer());
-        if (msg.object() instanceof Serializable) intent.putExtra("o", (Serializable) msg.object());
+        if (legacyBroadcastExtras) MessageCodec.encodeLegacy(msg, intent);
+        else MessageCodec.encode(msg, intent);
         broadcastManager.sendBroadcast(intent);
     }
 
@@ -282,6 +362,15 @@ public final class Aria2Service extends Service implements Aria2.MessageListener
                         service.stopSelf();
                     }
                     break;
+                case MESSAGE_RESTART:
+                    try {
+                        service.restart();
+                    } catch (IOException | BadEnvironmentException ex) {
+                        Log.e(TAG, "Failed restarting service.", ex);
+                        service.stop();
+                        service.stopSelf();
+                    }
+                    break;
                 default:
                     super.handleMessage(msg);
             }
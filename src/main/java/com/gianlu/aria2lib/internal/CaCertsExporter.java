@@ -0,0 +1,103 @@
+package com.gianlu.aria2lib.internal;
+
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.gianlu.aria2lib.Aria2PK;
+import com.gianlu.commonutils.analytics.AnalyticsApplication;
+import com.gianlu.commonutils.preferences.Prefs;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Exports the Android CA store as a PEM bundle for {@code --ca-certificate}. The file is rewritten only when the
+ * fingerprint of the aliases and encoded certificates changes, atomically through a temporary file.
+ */
+final class CaCertsExporter {
+    private static final String TAG = CaCertsExporter.class.getSimpleName();
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final byte[] BEGIN = "-----BEGIN CERTIFICATE-----\n".getBytes(US_ASCII);
+    private static final byte[] END = "-----END CERTIFICATE-----\n".getBytes(US_ASCII);
+    private static final String FILE_NAME = "ca-certs";
+
+    private CaCertsExporter() {
+    }
+
+    /**
+     * @return the bundle file or {@code null} if the store couldn't be exported
+     */
+    @Nullable
+    static File export(@NonNull File parent) {
+        long start = SystemClock.elapsedRealtime();
+        File certs = new File(parent, FILE_NAME);
+        boolean written = false;
+        try {
+            KeyStore ks = KeyStore.getInstance("AndroidCAStore");
+            ks.load(null, null);
+
+            CRC32 crc = new CRC32();
+            List<byte[]> encoded = new ArrayList<>();
+            Enumeration<String> aliases = ks.aliases();
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                Certificate cert = ks.getCertificate(alias);
+                if (cert == null) continue;
+
+                byte[] bytes = cert.getEncoded();
+                crc.update(alias.getBytes(US_ASCII));
+                crc.update(bytes);
+                encoded.add(bytes);
+            }
+
+            String fingerprint = Long.toHexString(crc.getValue()) + ":" + encoded.size();
+            if (certs.isFile() && fingerprint.equals(Prefs.getString(Aria2PK.CA_CERTS_FINGERPRINT, null)))
+                return certs;
+
+            write(certs, encoded);
+            Prefs.putString(Aria2PK.CA_CERTS_FINGERPRINT, fingerprint);
+            written = true;
+            return certs;
+        } catch (IOException | KeyStoreException | CertificateException | NoSuchAlgorithmException ex) {
+            Log.e(TAG, "Failed getting CA certificates.", ex);
+            return null;
+        } finally {
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            Log.d(TAG, "CA certificates " + (written ? "exported" : "checked") + " in " + elapsed + "ms");
+            AnalyticsApplication.setCrashlyticsLong("aria2_caCertsExportMs", elapsed);
+        }
+    }
+
+    private static void write(@NonNull File dest, @NonNull List<byte[]> certs) throws IOException {
+        File tmp = new File(dest.getParentFile(), dest.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp, false), 64 * 1024)) {
+            for (byte[] cert : certs) {
+                out.write(BEGIN);
+                out.write(Base64.encode(cert, Base64.DEFAULT));
+                out.write(END);
+            }
+        }
+
+        if (!tmp.renameTo(dest)) {
+            if (!tmp.delete()) Log.w(TAG, "Failed deleting " + tmp);
+            throw new IOException("Failed replacing " + dest);
+        }
+    }
+}
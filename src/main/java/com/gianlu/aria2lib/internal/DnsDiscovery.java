@@ -0,0 +1,131 @@
+package com.gianlu.aria2lib.internal;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the DNS servers of the active network, read from its {@link LinkProperties} and refreshed on every network change.
+ * Replaces {@code getprop net.dns1}, which needs a process spawn and returns nothing on recent Android versions.
+ */
+public final class DnsDiscovery {
+    private static final String TAG = DnsDiscovery.class.getSimpleName();
+    private static volatile DnsDiscovery instance;
+    private final ConnectivityManager cm;
+    private volatile List<String> servers = Collections.emptyList();
+
+    private DnsDiscovery(@NonNull ConnectivityManager cm) {
+        this.cm = cm;
+    }
+
+    /**
+     * Starts tracking the network changes, does nothing if already started.
+     */
+    public static void init(@NonNull Context context) {
+        if (instance != null) return;
+
+        synchronized (DnsDiscovery.class) {
+            if (instance != null) return;
+
+            ConnectivityManager cm = (ConnectivityManager) context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm == null) return;
+
+            DnsDiscovery discovery = new DnsDiscovery(cm);
+            discovery.refresh();
+            discovery.register();
+            instance = discovery;
+        }
+    }
+
+    /**
+     * @return the DNS servers of the active network, empty if unknown or if {@link #init(Context)} hasn't been called
+     */
+    @NonNull
+    public static List<String> servers() {
+        DnsDiscovery discovery = instance;
+        return discovery == null ? Collections.emptyList() : discovery.servers;
+    }
+
+    @NonNull
+    private static String hostAddress(@NonNull InetAddress addr) {
+        String host = addr.getHostAddress();
+        int scope = host.indexOf('%');
+        return scope == -1 ? host : host.substring(0, scope);
+    }
+
+    @Nullable
+    private Network activeNetwork() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            return cm.getActiveNetwork();
+
+        for (Network network : cm.getAllNetworks()) {
+            NetworkInfo info = cm.getNetworkInfo(network);
+            if (info != null && info.isConnected()) return network;
+        }
+
+        return null;
+    }
+
+    private void refresh() {
+        try {
+            Network network = activeNetwork();
+            LinkProperties props = network == null ? null : cm.getLinkProperties(network);
+            if (props == null) {
+                servers = Collections.emptyList();
+                return;
+            }
+
+            List<String> list = new ArrayList<>();
+            for (InetAddress addr : props.getDnsServers()) {
+                String host = hostAddress(addr);
+                if (!list.contains(host)) list.add(host);
+            }
+
+            servers = Collections.unmodifiableList(list);
+        } catch (SecurityException ex) {
+            Log.e(TAG, "Failed reading DNS servers.", ex);
+            servers = Collections.emptyList();
+        }
+    }
+
+    private void register() {
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+
+        try {
+            cm.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(@NonNull Network network) {
+                    refresh();
+                }
+
+                @Override
+                public void onLost(@NonNull Network network) {
+                    refresh();
+                }
+
+                @Override
+                public void onLinkPropertiesChanged(@NonNull Network network, @NonNull LinkProperties linkProperties) {
+                    refresh();
+                }
+            });
+        } catch (SecurityException ex) {
+            Log.e(TAG, "Failed registering network callback.", ex);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.gianlu.aria2lib.internal;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.gianlu.aria2lib.Aria2PK;
+import com.gianlu.aria2lib.BadEnvironmentException;
+import com.gianlu.commonutils.preferences.Prefs;
+import com.gianlu.commonutils.preferences.json.JsonStoring;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prepares what {@link Aria2} needs to build its environment. The CA bundle export and the custom options parsing run
+ * on a small executor while the binary and session file are checked on the calling thread. The binary check is skipped
+ * if the binary didn't change and an already exported CA bundle is used right away while being checked again in the background.
+ * At most one export runs at a time and a new preparation joins the one in flight, so the other thread is always free for the custom options.
+ */
+final class EnvPreparer {
+    static final String STEP_EXEC = "exec";
+    static final String STEP_SESSION = "session";
+    static final String STEP_CA_CERTS = "caCerts";
+    static final String STEP_CUSTOM_OPTIONS = "customOptions";
+    static final String STEP_TOTAL = "total";
+    private static final String TAG = EnvPreparer.class.getSimpleName();
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Long> timings = new LinkedHashMap<>();
+    private String checkedExec = null;
+    private volatile File exportedCaCerts = null;
+    private volatile long lastExportMicros = 0;
+    private Future<File> pendingExport = null;
+
+    EnvPreparer() {
+        executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "aria2-envPreparer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    private static String fingerprint(@NonNull File file) {
+        return file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+    }
+
+    @NonNull
+    private static Map<String, String> loadCustomOptions() {
+        Map<String, String> options = new HashMap<>();
+        try {
+            JSONObject obj = JsonStoring.intoPrefs().getJsonObject(Aria2PK.CUSTOM_OPTIONS);
+            if (obj == null) return options;
+
+            Iterator<String> iterator = obj.keys();
+            while (iterator.hasNext()) {
+                String key = iterator.next();
+                options.put("--" + key, obj.getString(key));
+            }
+        } catch (JSONException ex) {
+            Log.e(TAG, "Failed loading custom options.", ex);
+        }
+
+        return options;
+    }
+
+    @NonNull
+    synchronized Result prepare(@NonNull File parent, @NonNull File exec, @NonNull File session) throws BadEnvironmentException {
+        long start = System.nanoTime();
+        Map<String, Long> timings = new LinkedHashMap<>();
+
+        Future<File> caCerts = prepareCaCerts(parent, timings);
+        Future<Map<String, String>> customOptions = executor.submit(() -> {
+            long stepStart = System.nanoTime();
+            Map<String, String> options = loadCustomOptions();
+            record(timings, STEP_CUSTOM_OPTIONS, stepStart);
+            return options;
+        });
+
+        long stepStart = System.nanoTime();
+        checkExec(exec);
+        record(timings, STEP_EXEC, stepStart);
+
+        stepStart = System.nanoTime();
+        checkSession(session);
+        record(timings, STEP_SESSION, stepStart);
+
+        File caCertsFile = get(caCerts, "CA certificates");
+        if (caCerts != null && !(caCerts instanceof ImmediateFuture)) {
+            synchronized (timings) {
+                timings.put(STEP_CA_CERTS, lastExportMicros);
+            }
+        }
+
+        Result result = new Result(caCertsFile, get(customOptions, "custom options"));
+        record(timings, STEP_TOTAL, start);
+
+        synchronized (this.timings) {
+            this.timings.clear();
+            this.timings.putAll(timings);
+        }
+
+        Log.d(TAG, "Environment prepared: " + timings);
+        return result;
+    }
+
+    /**
+     * Must be called while holding the instance lock, see {@link #prepare(File, File, File)}.
+     */
+    @Nullable
+    private Future<File> prepareCaCerts(@NonNull File parent, @NonNull Map<String, Long> timings) {
+        if (!Prefs.getBoolean(Aria2PK.CHECK_CERTIFICATE)) return null;
+
+        File exported = exportedCaCerts;
+        Future<File> export = pendingExport;
+        if (export == null || export.isDone()) {
+            export = pendingExport = executor.submit(() -> {
+                long stepStart = System.nanoTime();
+                File file = exportedCaCerts = CaCertsExporter.export(parent);
+                lastExportMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - stepStart);
+                return file;
+            });
+        }
+
+        if (exported != null && exported.isFile() && exported.getParentFile().equals(parent)) {
+            // Revalidated in the background, changes are picked up by the next start
+            synchronized (timings) {
+                timings.put(STEP_CA_CERTS, 0L);
+            }
+
+            return new ImmediateFuture<>(exported);
+        }
+
+        return export;
+    }
+
+    private void checkExec(@NonNull File exec) throws BadEnvironmentException {
+        if (exec.exists() && fingerprint(exec).equals(checkedExec))
+            return;
+
+        if (!exec.exists())
+            throw new BadEnvironmentException(exec.getAbsolutePath() + " doesn't exists!");
+
+        if (!exec.canExecute() && !exec.setExecutable(true))
+            throw new BadEnvironmentException(exec.getAbsolutePath() + " can't be executed!");
+
+        checkedExec = fingerprint(exec);
+    }
+
+    private static void checkSession(@NonNull File session) throws BadEnvironmentException {
+        if (session.exists()) {
+            if (!session.canRead() && !session.setReadable(true))
+                throw new BadEnvironmentException(session.getAbsolutePath() + " can't be read!");
+        } else {
+            try {
+                if (!session.createNewFile())
+                    throw new BadEnvironmentException(session.getAbsolutePath() + " can't be created!");
+            } catch (IOException ex) {
+                throw new BadEnvironmentException(ex);
+            }
+        }
+    }
+
+    private static void record(@NonNull Map<String, Long> timings, @NonNull String step, long startNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        synchronized (timings) {
+            timings.put(step, micros);
+        }
+    }
+
+    @Nullable
+    private static <T> T get(@Nullable Future<T> future, @NonNull String what) {
+        if (future == null) return null;
+
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Log.e(TAG, "Failed preparing " + what + ".", ex.getCause());
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @return the duration in microseconds of every step of the last preparation, a step that has been skipped takes 0
+     */
+    @NonNull
+    Map<String, Long> timings() {
+        synchronized (timings) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(timings));
+        }
+    }
+
+    static final class Result {
+        final File caCerts;
+        final Map<String, String> customOptions;
+
+        Result(@Nullable File caCerts, @Nullable Map<String, String> customOptions) {
+            this.caCerts = caCerts;
+            this.customOptions = customOptions == null ? Collections.emptyMap() : customOptions;
+        }
+    }
+
+    private static final class ImmediateFuture<T> implements Future<T> {
+        private final T value;
+
+        ImmediateFuture(T value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public T get() {
+            return value;
+        }
+
+        @Override
+        public T get(long timeout, @NonNull TimeUnit unit) {
+            return value;
+        }
+    }
+}
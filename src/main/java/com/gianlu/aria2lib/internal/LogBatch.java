@@ -0,0 +1,62 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+
+import java.io.Serializable;
+
+/**
+ * A group of aria2c output lines delivered as a single {@link Message.Type#PROCESS_LOG_BATCH} message.
+ */
+public final class LogBatch implements Serializable {
+    private final Message.Type[] types;
+    private final String[] lines;
+    private final int[] repeats;
+    private int size = 0;
+
+    LogBatch(int capacity) {
+        types = new Message.Type[capacity];
+        lines = new String[capacity];
+        repeats = new int[capacity];
+    }
+
+    void add(@NonNull Message.Type type, @NonNull String line, int repeats) {
+        types[size] = type;
+        lines[size] = line;
+        this.repeats[size] = repeats;
+        size++;
+    }
+
+    boolean isFull() {
+        return size == lines.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @NonNull
+    public Message.Type type(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException(index + " >= " + size);
+        return types[index];
+    }
+
+    @NonNull
+    public String line(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException(index + " >= " + size);
+        return lines[index];
+    }
+
+    /**
+     * @return how many identical lines have been folded into this one
+     */
+    public int repeats(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException(index + " >= " + size);
+        return repeats[index];
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "LogBatch{size=" + size + '}';
+    }
+}
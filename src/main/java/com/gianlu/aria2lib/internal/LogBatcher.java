@@ -0,0 +1,87 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers output lines and hands them over as a single {@link LogBatch} when the window elapses or the batch is full.
+ */
+final class LogBatcher implements Closeable {
+    private final int windowMs;
+    private final int maxLines;
+    private final Sink sink;
+    private final ScheduledExecutorService executor;
+    private LogBatch current = null;
+    private boolean closed = false;
+
+    LogBatcher(int windowMs, int maxLines, @NonNull Sink sink) {
+        if (windowMs <= 0) throw new IllegalArgumentException("Invalid window: " + windowMs);
+        if (maxLines <= 0) throw new IllegalArgumentException("Invalid max lines: " + maxLines);
+
+        this.windowMs = windowMs;
+        this.maxLines = maxLines;
+        this.sink = sink;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "aria2-logBatcher"));
+    }
+
+    /**
+     * @return {@code false} if the batcher has been closed and the line should be delivered by other means
+     */
+    boolean add(@NonNull Message.Type type, @NonNull String line, int repeats) {
+        LogBatch full = null;
+        synchronized (this) {
+            if (closed) return false;
+
+            if (current == null) {
+                LogBatch batch = current = new LogBatch(maxLines);
+                executor.schedule(() -> flush(batch), windowMs, TimeUnit.MILLISECONDS);
+            }
+
+            current.add(type, line, repeats);
+            if (current.isFull()) {
+                full = current;
+                current = null;
+            }
+        }
+
+        if (full != null) sink.onBatch(full);
+        return true;
+    }
+
+    private void flush(@NonNull LogBatch batch) {
+        synchronized (this) {
+            if (current != batch) return;
+            current = null;
+        }
+
+        sink.onBatch(batch);
+    }
+
+    void flush() {
+        LogBatch batch;
+        synchronized (this) {
+            batch = current;
+            current = null;
+        }
+
+        if (batch != null && batch.size() > 0) sink.onBatch(batch);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+
+        flush();
+        executor.shutdown();
+    }
+
+    interface Sink {
+        void onBatch(@NonNull LogBatch batch);
+    }
+}
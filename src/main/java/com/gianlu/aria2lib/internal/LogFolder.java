@@ -0,0 +1,150 @@
+package com.gianlu.aria2lib.internal;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folds consecutive identical output lines of the same type: the first line goes through, the following ones within
+ * the window are counted and handed over as a single line carrying the repeat count. Lines that differ in any way,
+ * even just by a GID or a percentage, are never folded. Optionally also caps the number of lines of each type delivered
+ * per second, the others are handed to {@link Sink#onDropped(Message.Type, String)}.
+ */
+final class LogFolder implements Closeable {
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private final int windowMs;
+    private final int maxLinesPerSecond;
+    private final Sink sink;
+    private final ScheduledExecutorService executor;
+    private final double[] tokens = new double[TYPES.length];
+    private final long[] refilledAt = new long[TYPES.length];
+    private final int[] dropped = new int[TYPES.length];
+    private Message.Type lastType = null;
+    private String lastLine = null;
+    private long lastFirstAt;
+    private int repeats = 0;
+    private ScheduledFuture<?> pendingFlush = null;
+    private boolean closed = false;
+
+    /**
+     * @param windowMs          how long a line can keep absorbing repeats, 0 to disable folding
+     * @param maxLinesPerSecond the per-type rate limit, 0 to disable it
+     */
+    LogFolder(int windowMs, int maxLinesPerSecond, @NonNull Sink sink) {
+        if (windowMs < 0) throw new IllegalArgumentException("Invalid window: " + windowMs);
+        if (maxLinesPerSecond < 0) throw new IllegalArgumentException("Invalid rate limit: " + maxLinesPerSecond);
+
+        this.windowMs = windowMs;
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        this.sink = sink;
+        this.executor = windowMs > 0 ? Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "aria2-logFolder")) : null;
+
+        long now = SystemClock.elapsedRealtime();
+        for (int i = 0; i < TYPES.length; i++) {
+            tokens[i] = maxLinesPerSecond;
+            refilledAt[i] = now;
+        }
+    }
+
+    /**
+     * @return {@code false} if the folder has been closed and the line should be delivered by other means
+     */
+    synchronized boolean add(@NonNull Message.Type type, @NonNull String line) {
+        if (closed) return false;
+
+        long now = SystemClock.elapsedRealtime();
+        if (windowMs > 0 && type == lastType && now - lastFirstAt < windowMs && line.equals(lastLine)) {
+            repeats++;
+            return true;
+        }
+
+        flushRepeats();
+
+        if (!acquire(type, now)) {
+            dropped[type.ordinal()]++;
+            sink.onDropped(type, line);
+            return true;
+        }
+
+        int droppedCount = dropped[type.ordinal()];
+        if (droppedCount > 0) {
+            dropped[type.ordinal()] = 0;
+            sink.onLine(type, "Rate limit exceeded, " + droppedCount + " lines not shown", 0);
+        }
+
+        sink.onLine(type, line, 0);
+
+        if (windowMs > 0) {
+            lastType = type;
+            lastLine = line;
+            lastFirstAt = now;
+            if (pendingFlush == null)
+                pendingFlush = executor.schedule(this::expire, windowMs, TimeUnit.MILLISECONDS);
+        }
+
+        return true;
+    }
+
+    private boolean acquire(@NonNull Message.Type type, long now) {
+        if (maxLinesPerSecond <= 0) return true;
+
+        int i = type.ordinal();
+        tokens[i] = Math.min(maxLinesPerSecond, tokens[i] + (now - refilledAt[i]) * maxLinesPerSecond / 1000.0);
+        refilledAt[i] = now;
+        if (tokens[i] < 1) return false;
+
+        tokens[i]--;
+        return true;
+    }
+
+    private synchronized void expire() {
+        pendingFlush = null;
+        if (lastType == null) return;
+
+        long remaining = windowMs - (SystemClock.elapsedRealtime() - lastFirstAt);
+        if (remaining > 0) {
+            pendingFlush = executor.schedule(this::expire, remaining, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        flushRepeats();
+    }
+
+    private void flushRepeats() {
+        if (lastType != null && repeats > 0)
+            sink.onLine(lastType, lastLine, repeats);
+
+        lastType = null;
+        lastLine = null;
+        repeats = 0;
+    }
+
+    synchronized void flush() {
+        flushRepeats();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            flushRepeats();
+        }
+
+        if (executor != null) executor.shutdown();
+    }
+
+    interface Sink {
+        /**
+         * @param repeats how many lines have been folded into this one, 0 for a line delivered as is
+         */
+        void onLine(@NonNull Message.Type type, @NonNull String line, int repeats);
+
+        void onDropped(@NonNull Message.Type type, @NonNull String line);
+    }
+}
@@ -0,0 +1,286 @@
+package com.gianlu.aria2lib.internal;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index over the {@link LogJournal} segments: the record offsets by type and a token index of the
+ * alphanumeric words in the text (which covers GIDs and the components of hosts and file names).
+ * Query terms match word prefixes, the records found through the index are then checked against the full query text.
+ * Segments are indexed when searched and only the records appended since the previous search are read, without holding
+ * the journal lock: only the records before {@link LogJournal#committedEnd(long)} are read. Indexes of segments deleted by rotation are evicted right away.
+ */
+final class LogIndex {
+    private static final String TAG = LogIndex.class.getSimpleName();
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private static final int MIN_TOKEN_LENGTH = 2;
+    private static final int MAX_PREFIX_EXPANSION = 256;
+    private final LogJournal journal;
+    private final Map<Long, Segment> segments = new ConcurrentHashMap<>();
+
+    LogIndex(@NonNull LogJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Splits the text into lowercase runs of letters and digits, runs shorter than {@link #MIN_TOKEN_LENGTH} are skipped.
+     */
+    static void tokenize(@NonNull String text, @NonNull TokenSink sink) {
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < len && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i - start >= MIN_TOKEN_LENGTH)
+                sink.onToken(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * @param query whitespace separated terms, all of them must appear in the text (case insensitive)
+     * @param types the accepted types, all types if {@code null}
+     * @return at most {@code limit} matching records, newest first
+     */
+    @NonNull
+    synchronized List<LogJournal.Record> search(@NonNull String query, @Nullable EnumSet<Message.Type> types, int limit) {
+        String trimmed = query.trim().toLowerCase(Locale.ROOT);
+        String[] needles = trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+
+        Set<String> terms = new HashSet<>();
+        for (String needle : needles) tokenize(needle, terms::add);
+
+        refresh();
+
+        List<Long> seqs = new ArrayList<>(segments.keySet());
+        Collections.sort(seqs);
+
+        List<LogJournal.Record> results = new ArrayList<>();
+        for (int i = seqs.size() - 1; i >= 0 && results.size() < limit; i--) {
+            Segment segment = segments.get(seqs.get(i));
+            if (segment != null) segment.search(terms, needles, types, limit, results);
+        }
+
+        return results;
+    }
+
+    /**
+     * Drops the index of a segment deleted by rotation, called by the journal.
+     */
+    void evict(long seq) {
+        segments.remove(seq);
+    }
+
+    private void refresh() {
+        File[] files = journal.listSegments();
+        Set<Long> existing = new HashSet<>();
+        for (File file : files) {
+            long seq = LogJournal.parseSegment(file.getName());
+            existing.add(seq);
+
+            Segment segment = segments.get(seq);
+            if (segment == null || segment.buf.limit() < journal.segmentSize()) {
+                // The file may have been listed before being extended to its full size
+                ByteBuffer buf;
+                try {
+                    buf = LogJournal.map(file, false, journal.segmentSize());
+                } catch (IOException ex) {
+                    Log.w(TAG, "Failed mapping segment: " + file, ex);
+                    continue; // Probably deleted by rotation
+                }
+
+                if (segment == null) segments.put(seq, segment = new Segment(buf));
+                else segment.buf = buf;
+            }
+
+            segment.catchUp(journal.committedEnd(seq));
+        }
+
+        segments.keySet().retainAll(existing);
+    }
+
+    interface TokenSink {
+        void onToken(@NonNull String token);
+    }
+
+    /**
+     * Growable array of ascending offsets.
+     */
+    private static final class IntList {
+        int[] values = new int[16];
+        int size = 0;
+
+        void add(int value) {
+            if (size > 0 && values[size - 1] == value) return;
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        boolean contains(int value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+    }
+
+    private static final class Segment {
+        private ByteBuffer buf;
+        private final IntList[] byType = new IntList[TYPES.length];
+        private final TreeMap<String, IntList> tokens = new TreeMap<>();
+        private int end = LogJournal.HEADER_SIZE;
+
+        Segment(@NonNull ByteBuffer buf) {
+            this.buf = buf;
+            for (int i = 0; i < byType.length; i++) byType[i] = new IntList();
+        }
+
+        private void index(int offset, @NonNull String token) {
+            IntList postings = tokens.get(token);
+            if (postings == null) tokens.put(token, postings = new IntList());
+            postings.add(offset);
+        }
+
+        /**
+         * @param committed the offset up to which records are complete, see {@link LogJournal#committedEnd(long)}
+         */
+        void catchUp(int committed) {
+            if (buf.limit() < LogJournal.HEADER_SIZE || !LogJournal.hasMagic(buf)) return;
+
+            int limit = Math.min(buf.limit(), committed);
+            while (end + 4 <= limit) {
+                int len = buf.getInt(end);
+                if (len < LogJournal.RECORD_HEADER_SIZE - 4 || end + 4 + len > limit) break;
+
+                int ordinal = buf.get(end + 12) & 0xFF;
+                if (ordinal < TYPES.length) {
+                    int offset = end;
+                    byType[ordinal].add(offset);
+                    tokenize(LogJournal.readText(buf, offset, len), token -> index(offset, token));
+                }
+
+                end += 4 + len;
+            }
+        }
+
+        /**
+         * @return the offsets of the records containing a word that starts with {@code term},
+         * {@code null} if the term is too broad to be worth looking up
+         */
+        @Nullable
+        private IntList postings(@NonNull String term) {
+            SortedMap<String, IntList> range = tokens.subMap(term, term + Character.MAX_VALUE);
+            if (range.isEmpty()) return new IntList();
+
+            int count = 0;
+            int total = 0;
+            for (IntList postings : range.values()) {
+                if (++count > MAX_PREFIX_EXPANSION) return null;
+                total += postings.size;
+            }
+
+            if (count == 1) return range.get(range.firstKey());
+
+            IntList union = new IntList();
+            union.values = new int[total];
+            for (IntList postings : range.values()) {
+                System.arraycopy(postings.values, 0, union.values, union.size, postings.size);
+                union.size += postings.size;
+            }
+
+            Arrays.sort(union.values, 0, union.size);
+
+            int unique = 0;
+            for (int i = 0; i < union.size; i++)
+                if (unique == 0 || union.values[unique - 1] != union.values[i])
+                    union.values[unique++] = union.values[i];
+
+            union.size = unique;
+            return union;
+        }
+
+        @NonNull
+        private IntList candidates(@NonNull Set<String> terms, @Nullable EnumSet<Message.Type> types) {
+            if (terms.isEmpty()) {
+                IntList merged = new IntList();
+                int total = 0;
+                for (int i = 0; i < byType.length; i++)
+                    if (types == null || types.contains(TYPES[i])) total += byType[i].size;
+
+                merged.values = new int[Math.max(total, 1)];
+                for (int i = 0; i < byType.length; i++) {
+                    if (types != null && !types.contains(TYPES[i])) continue;
+                    System.arraycopy(byType[i].values, 0, merged.values, merged.size, byType[i].size);
+                    merged.size += byType[i].size;
+                }
+
+                Arrays.sort(merged.values, 0, merged.size);
+                return merged;
+            }
+
+            List<IntList> lists = new ArrayList<>(terms.size());
+            IntList shortest = null;
+            for (String term : terms) {
+                IntList postings = postings(term);
+                if (postings == null) continue;
+                if (postings.size == 0) return postings;
+                lists.add(postings);
+                if (shortest == null || postings.size < shortest.size) shortest = postings;
+            }
+
+            if (shortest == null) return candidates(Collections.emptySet(), types);
+
+            IntList result = new IntList();
+            outer:
+            for (int i = 0; i < shortest.size; i++) {
+                int offset = shortest.values[i];
+                for (IntList list : lists)
+                    if (list != shortest && !list.contains(offset)) continue outer;
+
+                result.add(offset);
+            }
+
+            return result;
+        }
+
+        void search(@NonNull Set<String> terms, @NonNull String[] needles, @Nullable EnumSet<Message.Type> types, int limit, @NonNull List<LogJournal.Record> results) {
+            IntList candidates = candidates(terms, types);
+            for (int i = candidates.size - 1; i >= 0 && results.size() < limit; i--) {
+                int offset = candidates.values[i];
+                Message.Type type = TYPES[buf.get(offset + 12) & 0xFF];
+                if (types != null && !types.contains(type)) continue;
+
+                String text = LogJournal.readText(buf, offset, buf.getInt(offset));
+                if (needles.length > 0) {
+                    String lower = text.toLowerCase(Locale.ROOT);
+                    boolean matches = true;
+                    for (String needle : needles) {
+                        if (!lower.contains(needle)) {
+                            matches = false;
+                            break;
+                        }
+                    }
+
+                    if (!matches) continue;
+                }
+
+                results.add(new LogJournal.Record(buf.getLong(offset + 4), type, text));
+            }
+        }
+    }
+}
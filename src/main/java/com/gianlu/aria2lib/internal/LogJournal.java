@@ -0,0 +1,313 @@
+package com.gianlu.aria2lib.internal;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Append-only journal of aria2c output, written through memory-mapped segments of fixed size.
+ * When a segment is full a new one is created and the oldest are deleted past {@link #maxSegments}.
+ * <p>
+ * Segment layout: {@code int magic, int reserved, long firstTimestamp} followed by records.
+ * Record layout: {@code int length, long timestamp, byte type, byte[] utf8Text}, a zero length marks the end of the segment.
+ */
+public final class LogJournal implements Closeable {
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 1;
+    private static final String TAG = LogJournal.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x41324a4c;
+    private static final int MAX_TEXT_BYTES = 8192;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final List<Long> segments = new ArrayList<>();
+    private final LogIndex index = new LogIndex(this);
+    private MappedByteBuffer buffer;
+    private long currentSegment = -1;
+    private boolean closed = false;
+
+    LogJournal(@NonNull File dir, int segmentSize, int maxSegments) {
+        if (segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE + MAX_TEXT_BYTES)
+            throw new IllegalArgumentException("Segment too small: " + segmentSize);
+        if (maxSegments < 1) throw new IllegalArgumentException("Invalid max segments: " + maxSegments);
+
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    static long parseSegment(@NonNull String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) return -1;
+
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    @NonNull
+    static MappedByteBuffer map(@NonNull File file, boolean write, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, write ? "rw" : "r"); FileChannel channel = raf.getChannel()) {
+            if (write && raf.length() < size) raf.setLength(size);
+            return channel.map(write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, Math.min(size, raf.length()));
+        }
+    }
+
+    /**
+     * @return the offset right after the last complete record
+     */
+    static int findEnd(@NonNull ByteBuffer buf) {
+        int pos = HEADER_SIZE;
+        int limit = buf.limit();
+        while (pos + 4 <= limit) {
+            int len = buf.getInt(pos);
+            if (len < RECORD_HEADER_SIZE - 4 || pos + 4 + len > limit) break;
+            pos += 4 + len;
+        }
+
+        return pos;
+    }
+
+    static boolean hasMagic(@NonNull ByteBuffer buf) {
+        return buf.getInt(0) == MAGIC;
+    }
+
+    /**
+     * @param pos the offset of the record
+     * @param len the length of the record, as stored in its first field
+     */
+    @NonNull
+    static String readText(@NonNull ByteBuffer buf, int pos, int len) {
+        byte[] text = new byte[len - (RECORD_HEADER_SIZE - 4)];
+        ByteBuffer reader = buf.duplicate();
+        reader.position(pos + RECORD_HEADER_SIZE);
+        reader.get(text);
+        return new String(text, UTF_8);
+    }
+
+    int segmentSize() {
+        return segmentSize;
+    }
+
+    @NonNull
+    private File segmentFile(long seq) {
+        return new File(dir, SEGMENT_PREFIX + seq + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return the existing segment files, oldest first
+     */
+    @NonNull
+    synchronized File[] listSegments() {
+        File[] files = dir.listFiles();
+        if (files == null) return new File[0];
+
+        long[] seqs = new long[files.length];
+        int count = 0;
+        for (File file : files) {
+            long seq = parseSegment(file.getName());
+            if (seq >= 0) seqs[count++] = seq;
+        }
+
+        Arrays.sort(seqs, 0, count);
+        File[] result = new File[count];
+        for (int i = 0; i < count; i++) result[i] = segmentFile(seqs[i]);
+        return result;
+    }
+
+    private void open() throws IOException {
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+
+        segments.clear();
+        for (File file : listSegments())
+            segments.add(parseSegment(file.getName()));
+
+        if (segments.isEmpty()) {
+            rotate();
+            return;
+        }
+
+        long last = segments.get(segments.size() - 1);
+        MappedByteBuffer buf = map(segmentFile(last), true, segmentSize);
+        if (buf.getInt(0) != MAGIC) {
+            rotate();
+            return;
+        }
+
+        buf.position(findEnd(buf));
+        buffer = buf;
+        currentSegment = last;
+    }
+
+    private void rotate() throws IOException {
+        long seq = currentSegment + 1;
+        if (!segments.isEmpty()) seq = Math.max(seq, segments.get(segments.size() - 1) + 1);
+
+        MappedByteBuffer buf = map(segmentFile(seq), true, segmentSize);
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, 0);
+        buf.putLong(8, 0);
+        buf.position(HEADER_SIZE);
+
+        buffer = buf;
+        currentSegment = seq;
+        segments.add(seq);
+
+        while (segments.size() > maxSegments) {
+            long oldSeq = segments.remove(0);
+            index.evict(oldSeq);
+
+            File old = segmentFile(oldSeq);
+            if (!old.delete()) Log.w(TAG, "Failed deleting old segment: " + old);
+        }
+    }
+
+    synchronized void append(long timestamp, @NonNull Message.Type type, @NonNull String text) throws IOException {
+        if (closed) return;
+        if (buffer == null) open();
+
+        byte[] bytes = text.getBytes(UTF_8);
+        int textLen = Math.min(bytes.length, MAX_TEXT_BYTES);
+        int recordLen = RECORD_HEADER_SIZE + textLen;
+        if (buffer.remaining() < recordLen) rotate();
+
+        MappedByteBuffer buf = buffer;
+        int pos = buf.position();
+        if (buf.getLong(8) == 0) buf.putLong(8, timestamp);
+
+        buf.putLong(pos + 4, timestamp);
+        buf.put(pos + 12, (byte) type.ordinal());
+        buf.position(pos + RECORD_HEADER_SIZE);
+        buf.put(bytes, 0, textLen);
+
+        // Length goes last, readers stop at a zero length
+        buf.putInt(pos, recordLen - 4);
+    }
+
+    /**
+     * Readers map the segments on their own, taking the journal lock here orders their reads after the writes of {@link #append(long, Message.Type, String)}.
+     *
+     * @return the offset up to which the records of the given segment are complete
+     */
+    synchronized int committedEnd(long seq) {
+        if (buffer == null || seq != currentSegment) return Integer.MAX_VALUE; // Not written anymore
+        return buffer.position();
+    }
+
+    /**
+     * Visits the records with a timestamp in {@code [from, to]} and one of the given types (all types if {@code null}), oldest first.
+     * Segments are mapped read-only, only the text of the matching records is decoded.
+     */
+    public void scan(long from, long to, @Nullable EnumSet<Message.Type> types, @NonNull Visitor visitor) throws IOException {
+        File[] files = listSegments();
+        long[] firsts = new long[files.length];
+        for (int i = 0; i < files.length; i++)
+            firsts[i] = readFirstTimestamp(files[i]);
+
+        for (int i = 0; i < files.length; i++) {
+            if (firsts[i] == 0 || firsts[i] > to) continue;
+            if (i + 1 < files.length && firsts[i + 1] != 0 && firsts[i + 1] < from) continue;
+
+            MappedByteBuffer buf;
+            try {
+                buf = map(files[i], false, segmentSize);
+            } catch (IOException ex) {
+                Log.w(TAG, "Failed mapping segment: " + files[i], ex);
+                continue; // Probably deleted by rotation
+            }
+
+            if (!scanSegment(buf, from, to, types, visitor)) return;
+        }
+    }
+
+    private static boolean scanSegment(@NonNull ByteBuffer buf, long from, long to, @Nullable EnumSet<Message.Type> types, @NonNull Visitor visitor) {
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) return true;
+
+        int pos = HEADER_SIZE;
+        int limit = buf.limit();
+        while (pos + 4 <= limit) {
+            int len = buf.getInt(pos);
+            if (len < RECORD_HEADER_SIZE - 4 || pos + 4 + len > limit) break;
+
+            long timestamp = buf.getLong(pos + 4);
+            int ordinal = buf.get(pos + 12) & 0xFF;
+            if (timestamp >= from && timestamp <= to && ordinal < TYPES.length
+                    && (types == null || types.contains(TYPES[ordinal]))) {
+                if (!visitor.onRecord(timestamp, TYPES[ordinal], readText(buf, pos, len)))
+                    return false;
+            }
+
+            pos += 4 + len;
+        }
+
+        return true;
+    }
+
+    /**
+     * Searches the journal through an in-memory index that is updated incrementally on every call.
+     *
+     * @param query whitespace separated terms, all of them must appear in the text (case insensitive). Empty to match any text
+     * @param types the accepted types, all types if {@code null}
+     * @param limit the maximum number of records to return
+     * @return the matching records, newest first
+     */
+    @NonNull
+    public List<Record> search(@NonNull String query, @Nullable EnumSet<Message.Type> types, int limit) {
+        return index.search(query, types, limit);
+    }
+
+    private static long readFirstTimestamp(@NonNull File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) return 0;
+            raf.readInt();
+            return raf.readLong();
+        } catch (IOException ex) {
+            return 0;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        buffer = null;
+    }
+
+    public static final class Record {
+        public final long timestamp;
+        public final Message.Type type;
+        public final String text;
+
+        Record(long timestamp, @NonNull Message.Type type, @NonNull String text) {
+            this.timestamp = timestamp;
+            this.type = type;
+            this.text = text;
+        }
+    }
+
+    public interface Visitor {
+        /**
+         * @return whether to continue scanning
+         */
+        boolean onRecord(long timestamp, @NonNull Message.Type type, @NonNull String text);
+    }
+}
@@ -5,26 +5,45 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.LinkedList;
-import java.util.Queue;
-
 public final class Message {
-    private static final Queue<Message> cache = new LinkedList<>();
-
-    static {
-        for (int i = 0; i < 10; i++)
-            cache.add(new Message());
-    }
-
+    private static final int DEFAULT_POOL_CAPACITY = 64;
+    private static volatile ObjectPool<Message> pool = createPool(DEFAULT_POOL_CAPACITY);
+    /**
+     * @deprecated delays are no longer honored, messages are dispatched as soon as they are posted and
+     * readiness is signalled by {@link Type#RPC_READY} instead.
+     */
+    @Deprecated
     public int delay;
+    long postedAt;
     private Object o;
     private int i;
     private Type type;
-    private boolean recycled = false;
+    private volatile boolean recycled = false;
 
     private Message() {
     }
 
+    @NonNull
+    private static ObjectPool<Message> createPool(int capacity) {
+        ObjectPool<Message> pool = new ObjectPool<>(capacity);
+        for (int i = 0; i < Math.min(10, capacity); i++)
+            pool.release(new Message());
+
+        return pool;
+    }
+
+    /**
+     * Replaces the message pool with a new one of the given capacity, pooled instances are dropped.
+     */
+    public static void setPoolCapacity(int capacity) {
+        pool = createPool(capacity);
+    }
+
+    @NonNull
+    public static ObjectPool<Message> pool() {
+        return pool;
+    }
+
     @NonNull
     public static Message obtain(@NonNull Type type, Object o) {
         return obtain(type, 0, o);
@@ -42,15 +61,13 @@ public final class Message {
 
     @NonNull
     public static Message obtain(@NonNull Type type, int i, Object o) {
-        synchronized (cache) {
-            Message msg = cache.isEmpty() ? null : cache.poll();
-            if (msg == null) msg = new Message();
-            msg.recycled = false;
-            msg.type = type;
-            msg.i = i;
-            msg.o = o;
-            return msg;
-        }
+        Message msg = pool.acquire();
+        if (msg == null) msg = new Message();
+        msg.recycled = false;
+        msg.type = type;
+        msg.i = i;
+        msg.o = o;
+        return msg;
     }
 
     @NonNull
@@ -68,11 +85,10 @@ public final class Message {
     }
 
     public void recycle() {
-        synchronized (cache) {
-            if (!recycled) {
-                cache.add(this);
-                recycled = true;
-            }
+        if (!recycled) {
+            recycled = true;
+            o = null;
+            pool.release(this);
         }
     }
 
@@ -88,17 +104,67 @@ public final class Message {
 
     public enum Type {
         PROCESS_TERMINATED, PROCESS_STARTED, MONITOR_FAILED, MONITOR_UPDATE,
-        PROCESS_WARN, PROCESS_ERROR, PROCESS_INFO;
+        PROCESS_WARN, PROCESS_ERROR, PROCESS_INFO, PROCESS_LOG_BATCH,
+        DOWNLOAD_START, DOWNLOAD_PAUSE, DOWNLOAD_STOP, DOWNLOAD_COMPLETE, DOWNLOAD_ERROR, BT_DOWNLOAD_COMPLETE,
+        RPC_READY, RECONFIGURED, SESSION_COMPACTED; // Appended, ordinals are persisted by LogJournal
+
+        @Nullable
+        static Type fromNotification(@NonNull String method) {
+            switch (method) {
+                case "aria2.onDownloadStart":
+                    return DOWNLOAD_START;
+                case "aria2.onDownloadPause":
+                    return DOWNLOAD_PAUSE;
+                case "aria2.onDownloadStop":
+                    return DOWNLOAD_STOP;
+                case "aria2.onDownloadComplete":
+                    return DOWNLOAD_COMPLETE;
+                case "aria2.onDownloadError":
+                    return DOWNLOAD_ERROR;
+                case "aria2.onBtDownloadComplete":
+                    return BT_DOWNLOAD_COMPLETE;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @return whether this message is an aria2 download notification, in which case the object is the GID
+         */
+        public boolean isDownloadEvent() {
+            switch (this) {
+                case DOWNLOAD_START:
+                case DOWNLOAD_PAUSE:
+                case DOWNLOAD_STOP:
+                case DOWNLOAD_COMPLETE:
+                case DOWNLOAD_ERROR:
+                case BT_DOWNLOAD_COMPLETE:
+                    return true;
+                default:
+                    return false;
+            }
+        }
 
         private int getPriority() {
             switch (this) {
                 case MONITOR_UPDATE:
+                case PROCESS_LOG_BATCH:
                     return -1;
+                case DOWNLOAD_START:
+                case DOWNLOAD_PAUSE:
+                case DOWNLOAD_STOP:
+                case DOWNLOAD_COMPLETE:
+                case BT_DOWNLOAD_COMPLETE:
+                    return Log.DEBUG;
                 case PROCESS_INFO:
                 case PROCESS_STARTED:
+                case RPC_READY:
+                case RECONFIGURED:
+                case SESSION_COMPACTED:
                 case PROCESS_TERMINATED:
                     return Log.INFO;
                 case PROCESS_WARN:
+                case DOWNLOAD_ERROR:
                     return Log.WARN;
                 default:
                 case PROCESS_ERROR:
@@ -0,0 +1,137 @@
+package com.gianlu.aria2lib.internal;
+
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Serializable;
+
+/**
+ * Encodes the {@link Aria2Service#BROADCAST_MESSAGE} payloads as primitive extras, nothing goes through Java serialization:
+ * <ul>
+ * <li>{@code typeName}: the {@link Message.Type} name</li>
+ * <li>{@code i}: the message integer</li>
+ * <li>{@code text}: the text of log lines, GIDs and start commands or the description of an exception</li>
+ * <li>{@code monitor} and {@code cpu}: a {@link MonitorUpdate} packed as a {@code long[]} plus the CPU usage string</li>
+ * <li>{@code batchTypes}, {@code batchLines} and {@code batchRepeats}: a {@link LogBatch} as parallel arrays</li>
+ * </ul>
+ * Receivers that still cast the old extras can opt in to the legacy encoding with {@link Aria2Service#setLegacyBroadcastExtras(boolean)},
+ * which is sent instead: {@code type} as the serializable {@link Message.Type}, {@code i} and {@code o} as the {@link Serializable} object.
+ * {@link #decode(Intent)} reads both.
+ */
+public final class MessageCodec {
+    public static final String EXTRA_LEGACY_TYPE = "type";
+    public static final String EXTRA_INTEGER = "i";
+    public static final String EXTRA_LEGACY_OBJECT = "o";
+    public static final String EXTRA_TYPE = "typeName";
+    public static final String EXTRA_TEXT = "text";
+    public static final String EXTRA_MONITOR = "monitor";
+    public static final String EXTRA_CPU = "cpu";
+    public static final String EXTRA_BATCH_TYPES = "batchTypes";
+    public static final String EXTRA_BATCH_LINES = "batchLines";
+    public static final String EXTRA_BATCH_REPEATS = "batchRepeats";
+    private static final Message.Type[] TYPES = Message.Type.values();
+    private static final int MONITOR_FIELDS = 8;
+
+    private MessageCodec() {
+    }
+
+    static void encode(@NonNull Message msg, @NonNull Intent intent) {
+        intent.putExtra(EXTRA_TYPE, msg.type().name());
+        intent.putExtra(EXTRA_INTEGER, msg.integer());
+
+        Object o = msg.object();
+        if (o == null) return;
+
+        if (o instanceof MonitorUpdate) {
+            MonitorUpdate update = (MonitorUpdate) o;
+            intent.putExtra(EXTRA_MONITOR, new long[]{update.pid(), update.rss(), update.hasGlobalStat() ? 1 : 0,
+                    update.downloadSpeed(), update.uploadSpeed(), update.numActive(), update.numWaiting(), update.numStopped()});
+            intent.putExtra(EXTRA_CPU, update.cpu());
+        } else if (o instanceof LogBatch) {
+            LogBatch batch = (LogBatch) o;
+            byte[] types = new byte[batch.size()];
+            String[] lines = new String[batch.size()];
+            int[] repeats = new int[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                types[i] = (byte) batch.type(i).ordinal();
+                lines[i] = batch.line(i);
+                repeats[i] = batch.repeats(i);
+            }
+
+            intent.putExtra(EXTRA_BATCH_TYPES, types);
+            intent.putExtra(EXTRA_BATCH_LINES, lines);
+            intent.putExtra(EXTRA_BATCH_REPEATS, repeats);
+        } else {
+            intent.putExtra(EXTRA_TEXT, o.toString());
+        }
+    }
+
+    /**
+     * The encoding used before {@link #encode(Message, Intent)}, kept for receivers that cast the extras.
+     */
+    static void encodeLegacy(@NonNull Message msg, @NonNull Intent intent) {
+        intent.putExtra(EXTRA_LEGACY_TYPE, msg.type());
+        intent.putExtra(EXTRA_INTEGER, msg.integer());
+
+        Object o = msg.object();
+        if (o instanceof MonitorUpdate) // The original is recycled once dispatched
+            intent.putExtra(EXTRA_LEGACY_OBJECT, ((MonitorUpdate) o).snapshot());
+        else if (o instanceof Serializable)
+            intent.putExtra(EXTRA_LEGACY_OBJECT, (Serializable) o);
+    }
+
+    /**
+     * @return the decoded message or {@code null} if the intent doesn't carry a valid one
+     */
+    @Nullable
+    public static Aria2Events.Event decode(@NonNull Intent intent) {
+        String typeName = intent.getStringExtra(EXTRA_TYPE);
+        if (typeName == null) return decodeLegacy(intent);
+
+        Message.Type type;
+        try {
+            type = Message.Type.valueOf(typeName);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+
+        int i = intent.getIntExtra(EXTRA_INTEGER, 0);
+
+        long[] monitor = intent.getLongArrayExtra(EXTRA_MONITOR);
+        if (monitor != null && monitor.length >= MONITOR_FIELDS) {
+            String cpu = intent.getStringExtra(EXTRA_CPU);
+            MonitorUpdate update = MonitorUpdate.unpooled((int) monitor[0], cpu == null ? "" : cpu, (int) monitor[1]);
+            if (monitor[2] != 0)
+                update.setGlobalStat(monitor[3], monitor[4], (int) monitor[5], (int) monitor[6], (int) monitor[7]);
+
+            return new Aria2Events.Event(type, i, update);
+        }
+
+        byte[] types = intent.getByteArrayExtra(EXTRA_BATCH_TYPES);
+        String[] lines = intent.getStringArrayExtra(EXTRA_BATCH_LINES);
+        int[] repeats = intent.getIntArrayExtra(EXTRA_BATCH_REPEATS);
+        if (types != null && lines != null && repeats != null) {
+            int size = Math.min(types.length, Math.min(lines.length, repeats.length));
+            LogBatch batch = new LogBatch(Math.max(size, 1));
+            for (int j = 0; j < size; j++) {
+                int ordinal = types[j] & 0xFF;
+                if (ordinal < TYPES.length && lines[j] != null)
+                    batch.add(TYPES[ordinal], lines[j], repeats[j]);
+            }
+
+            return new Aria2Events.Event(type, i, batch);
+        }
+
+        return new Aria2Events.Event(type, i, intent.getStringExtra(EXTRA_TEXT));
+    }
+
+    @Nullable
+    private static Aria2Events.Event decodeLegacy(@NonNull Intent intent) {
+        Serializable type = intent.getSerializableExtra(EXTRA_LEGACY_TYPE);
+        if (!(type instanceof Message.Type)) return null;
+
+        return new Aria2Events.Event((Message.Type) type, intent.getIntExtra(EXTRA_INTEGER, 0), intent.getSerializableExtra(EXTRA_LEGACY_OBJECT));
+    }
+}
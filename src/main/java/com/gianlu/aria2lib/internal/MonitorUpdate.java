@@ -3,40 +3,100 @@ package com.gianlu.aria2lib.internal;
 import androidx.annotation.NonNull;
 
 import java.io.Serializable;
-import java.util.LinkedList;
-import java.util.Queue;
 
 public final class MonitorUpdate implements Serializable {
-    private static final Queue<MonitorUpdate> cache = new LinkedList<>();
-
-    static {
-        for (int i = 0; i < 10; i++)
-            cache.add(new MonitorUpdate());
-    }
-
-    private boolean recycled = false;
+    private static final int DEFAULT_POOL_CAPACITY = 10;
+    private static volatile ObjectPool<MonitorUpdate> pool = createPool(DEFAULT_POOL_CAPACITY);
+    private transient volatile boolean recycled = false;
     private int rss;
     private String cpu;
     private int pid;
+    private boolean hasGlobalStat;
+    private long downloadSpeed;
+    private long uploadSpeed;
+    private int numActive;
+    private int numWaiting;
+    private int numStopped;
 
     private MonitorUpdate() {
     }
 
+    @NonNull
+    private static ObjectPool<MonitorUpdate> createPool(int capacity) {
+        ObjectPool<MonitorUpdate> pool = new ObjectPool<>(capacity);
+        for (int i = 0; i < capacity; i++)
+            pool.release(new MonitorUpdate());
+
+        return pool;
+    }
+
+    /**
+     * Replaces the update pool with a new one of the given capacity, pooled instances are dropped.
+     */
+    public static void setPoolCapacity(int capacity) {
+        pool = createPool(capacity);
+    }
+
+    @NonNull
+    public static ObjectPool<MonitorUpdate> pool() {
+        return pool;
+    }
+
     @NonNull
     public static MonitorUpdate obtain(int pid, @NonNull String cpu, int rss) {
-        MonitorUpdate msg = cache.poll();
+        MonitorUpdate msg = pool.acquire();
         if (msg == null) msg = new MonitorUpdate();
         msg.recycled = false;
         msg.pid = pid;
         msg.cpu = cpu;
         msg.rss = rss;
+        msg.hasGlobalStat = false;
+        msg.downloadSpeed = msg.uploadSpeed = 0;
+        msg.numActive = msg.numWaiting = msg.numStopped = 0;
         return msg;
     }
 
+    /**
+     * @return a copy that is not part of the pool, {@link #recycle()} has no effect on it
+     */
+    @NonNull
+    MonitorUpdate snapshot() {
+        MonitorUpdate copy = unpooled(pid, cpu, rss);
+        copy.hasGlobalStat = hasGlobalStat;
+        copy.downloadSpeed = downloadSpeed;
+        copy.uploadSpeed = uploadSpeed;
+        copy.numActive = numActive;
+        copy.numWaiting = numWaiting;
+        copy.numStopped = numStopped;
+        return copy;
+    }
+
+    /**
+     * @return an update that is not part of the pool, {@link #recycle()} has no effect on it
+     */
+    @NonNull
+    static MonitorUpdate unpooled(int pid, @NonNull String cpu, int rss) {
+        MonitorUpdate update = new MonitorUpdate();
+        update.recycled = true;
+        update.pid = pid;
+        update.cpu = cpu;
+        update.rss = rss;
+        return update;
+    }
+
+    void setGlobalStat(long downloadSpeed, long uploadSpeed, int numActive, int numWaiting, int numStopped) {
+        this.hasGlobalStat = true;
+        this.downloadSpeed = downloadSpeed;
+        this.uploadSpeed = uploadSpeed;
+        this.numActive = numActive;
+        this.numWaiting = numWaiting;
+        this.numStopped = numStopped;
+    }
+
     public void recycle() {
         if (!recycled) {
-            cache.add(this);
             recycled = true;
+            pool.release(this);
         }
     }
 
@@ -52,4 +112,31 @@ public final class MonitorUpdate implements Serializable {
     public int rss() {
         return rss;
     }
+
+    /**
+     * @return whether the aria2 global stats have been sampled for this update
+     */
+    public boolean hasGlobalStat() {
+        return hasGlobalStat;
+    }
+
+    public long downloadSpeed() {
+        return downloadSpeed;
+    }
+
+    public long uploadSpeed() {
+        return uploadSpeed;
+    }
+
+    public int numActive() {
+        return numActive;
+    }
+
+    public int numWaiting() {
+        return numWaiting;
+    }
+
+    public int numStopped() {
+        return numStopped;
+    }
 }
@@ -0,0 +1,83 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free object pool. Instances live in a fixed array of slots that are claimed and filled with CAS,
+ * so neither {@link #acquire()} nor {@link #release(Object)} blocks or allocates.
+ */
+public final class ObjectPool<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    ObjectPool(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * @return a pooled instance or {@code null} if the pool is empty
+     */
+    @Nullable
+    T acquire() {
+        for (int i = 0; i < slots.length(); i++) {
+            T obj = slots.get(i);
+            if (obj != null && slots.compareAndSet(i, obj, null)) {
+                hits.incrementAndGet();
+                return obj;
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return whether the instance has been pooled, {@code false} if the pool is full
+     */
+    boolean release(@NonNull T obj) {
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, obj))
+                return true;
+        }
+
+        overflows.incrementAndGet();
+        return false;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    public int size() {
+        int count = 0;
+        for (int i = 0; i < slots.length(); i++)
+            if (slots.get(i) != null) count++;
+
+        return count;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long overflows() {
+        return overflows.get();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ObjectPool{capacity=" + capacity() + ", hits=" + hits() + ", misses=" + misses() + ", overflows=" + overflows() + '}';
+    }
+}
@@ -0,0 +1,137 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits aria2c output into lines and classifies them working on the raw bytes,
+ * only the text that is delivered to the listener is decoded.
+ */
+final class OutputReader {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] WARNING_PREFIX = {'W', 'A', 'R', 'N', 'I', 'N', 'G', ':', ' '};
+    private static final byte[] ERROR_PREFIX = {'E', 'R', 'R', 'O', 'R', ':', ' '};
+    private static final int HEADER_LENGTH = 16; // "MM/DD HH:MM:SS ["
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private final InputStream in;
+    private byte[] buffer;
+    private volatile boolean stopped = false;
+
+    OutputReader(@NonNull InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    OutputReader(@NonNull InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean startsWith(@NonNull byte[] buf, int off, int len, @NonNull byte[] prefix) {
+        if (len < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (buf[off + i] != prefix[i]) return false;
+
+        return true;
+    }
+
+    /**
+     * Equivalent to {@code ^\d{2}/\d{2} \d{2}:\d{2}:\d{2} \[.+] (.+)$}, the bracket is closed by the last "] " in the line.
+     *
+     * @return the length of the "MM/DD HH:MM:SS [LEVEL] " header or 0 if there is none
+     */
+    static int headerLength(@NonNull byte[] buf, int off, int len) {
+        if (len < HEADER_LENGTH + 4) return 0;
+
+        if (!isDigit(buf[off]) || !isDigit(buf[off + 1]) || buf[off + 2] != '/'
+                || !isDigit(buf[off + 3]) || !isDigit(buf[off + 4]) || buf[off + 5] != ' '
+                || !isDigit(buf[off + 6]) || !isDigit(buf[off + 7]) || buf[off + 8] != ':'
+                || !isDigit(buf[off + 9]) || !isDigit(buf[off + 10]) || buf[off + 11] != ':'
+                || !isDigit(buf[off + 12]) || !isDigit(buf[off + 13]) || buf[off + 14] != ' '
+                || buf[off + 15] != '[')
+            return 0;
+
+        for (int i = len - 3; i > HEADER_LENGTH; i--) {
+            if (buf[off + i] == ']' && buf[off + i + 1] == ' ')
+                return i + 2;
+        }
+
+        return 0;
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Reads lines until the end of the stream or until {@link #stop()} is called. Empty lines are skipped.
+     */
+    void read(@NonNull Listener listener) throws IOException {
+        int start = 0;
+        int end = 0;
+        int scan = 0;
+
+        while (!stopped) {
+            for (; scan < end; scan++) {
+                byte b = buffer[scan];
+                if (b == '\n' || b == '\r') {
+                    if (scan > start) emit(listener, start, scan - start);
+                    start = scan + 1;
+                }
+            }
+
+            if (start == end) {
+                start = end = scan = 0;
+            } else if (end == buffer.length) {
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    scan -= start;
+                    start = 0;
+                } else if (buffer.length < MAX_LINE_LENGTH) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                } else {
+                    emit(listener, start, end - start);
+                    start = end = scan = 0;
+                }
+            }
+
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read == -1) {
+                if (end > start && !stopped) emit(listener, start, end - start);
+                return;
+            }
+
+            end += read;
+        }
+    }
+
+    private void emit(@NonNull Listener listener, int off, int len) {
+        Message.Type type;
+        int skip;
+        if (startsWith(buffer, off, len, WARNING_PREFIX)) {
+            type = Message.Type.PROCESS_WARN;
+            skip = WARNING_PREFIX.length;
+        } else if (startsWith(buffer, off, len, ERROR_PREFIX)) {
+            type = Message.Type.PROCESS_ERROR;
+            skip = ERROR_PREFIX.length;
+        } else {
+            type = Message.Type.PROCESS_INFO;
+            skip = headerLength(buffer, off, len);
+        }
+
+        listener.onLine(type, new String(buffer, off + skip, len - skip, UTF_8));
+    }
+
+    interface Listener {
+        void onLine(@NonNull Message.Type type, @NonNull String text);
+    }
+}
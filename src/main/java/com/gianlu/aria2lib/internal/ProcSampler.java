@@ -0,0 +1,235 @@
+package com.gianlu.aria2lib.internal;
+
+import android.os.SystemClock;
+import android.system.Os;
+import android.system.OsConstants;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Samples CPU and memory usage of a single process straight from {@code /proc/<pid>/stat} and {@code /proc/<pid>/statm}.
+ * CPU usage is computed from the jiffies consumed between two samples, so the first call to {@link #sample()} only primes the sampler.
+ */
+final class ProcSampler {
+    private static final int STAT_UTIME_FIELD = 14;
+    private static final int STAT_STIME_FIELD = 15;
+    private final int pid;
+    private final File statFile;
+    private final File statmFile;
+    private final long clockTicks;
+    private final long pageSize;
+    private final byte[] buffer = new byte[1024];
+    private long lastTicks = -1;
+    private long lastTime;
+
+    ProcSampler(int pid) {
+        this.pid = pid;
+        this.statFile = new File("/proc/" + pid + "/stat");
+        this.statmFile = new File("/proc/" + pid + "/statm");
+        this.clockTicks = Os.sysconf(OsConstants._SC_CLK_TCK);
+        this.pageSize = Os.sysconf(OsConstants._SC_PAGESIZE);
+    }
+
+    @NonNull
+    private static String formatCpu(float cpu) {
+        return String.valueOf(Math.round(cpu * 10) / 10f);
+    }
+
+    private static long parseLong(@NonNull byte[] buf, int from, int to) throws IOException {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf[i];
+            if (b < '0' || b > '9') throw new IOException("Invalid number in /proc file.");
+            value = value * 10 + (b - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * @return the direct children of {@code parentPid} running {@code exec}, whatever their arguments
+     */
+    @NonNull
+    static Set<Integer> childPids(int parentPid, @NonNull String exec) {
+        return findChildren(parentPid, encodeCmdline(new String[]{exec}), true, Collections.emptySet(), false);
+    }
+
+    /**
+     * Looks for a direct child of {@code parentPid} whose command line is exactly {@code cmdline}. Matching all the arguments
+     * tells the process apart from other invocations of the same binary, like {@code aria2c -v}.
+     *
+     * @param exclude the children that existed before the process was spawned
+     * @return the PID of the child or -1 if not found
+     */
+    static int findChildPid(int parentPid, @NonNull String[] cmdline, @NonNull Set<Integer> exclude) {
+        Set<Integer> pids = findChildren(parentPid, encodeCmdline(cmdline), false, exclude, true);
+        return pids.isEmpty() ? -1 : pids.iterator().next();
+    }
+
+    /**
+     * @return the arguments as found in {@code /proc/<pid>/cmdline}, each one terminated by a NUL
+     */
+    @NonNull
+    private static byte[] encodeCmdline(@NonNull String[] cmdline) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String arg : cmdline) {
+            byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+            out.write(0);
+        }
+
+        return out.toByteArray();
+    }
+
+    @NonNull
+    private static Set<Integer> findChildren(int parentPid, @NonNull byte[] cmdline, boolean prefix, @NonNull Set<Integer> exclude, boolean first) {
+        File[] entries = new File("/proc").listFiles();
+        if (entries == null) return Collections.emptySet();
+
+        Set<Integer> pids = new HashSet<>();
+        byte[] statBuf = new byte[512];
+        byte[] cmdlineBuf = new byte[cmdline.length + 1];
+        for (File entry : entries) {
+            int pid;
+            try {
+                pid = Integer.parseInt(entry.getName());
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+
+            if (exclude.contains(pid)) continue;
+
+            try {
+                if (readParentPid(new File(entry, "stat"), statBuf) != parentPid)
+                    continue;
+
+                int len = readFully(new File(entry, "cmdline"), cmdlineBuf);
+                if (len < cmdline.length || (!prefix && len != cmdline.length)) continue;
+
+                boolean matches = true;
+                for (int i = 0; i < cmdline.length && matches; i++)
+                    matches = cmdlineBuf[i] == cmdline[i];
+
+                if (matches) {
+                    pids.add(pid);
+                    if (first) break;
+                }
+            } catch (IOException ignored) {
+                // Process is gone or not ours
+            }
+        }
+
+        return pids;
+    }
+
+    private static int readFully(@NonNull File file, @NonNull byte[] buf) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            int count = 0;
+            int read;
+            while (count < buf.length && (read = in.read(buf, count, buf.length - count)) != -1)
+                count += read;
+
+            return count;
+        }
+    }
+
+    private static int readParentPid(@NonNull File stat, @NonNull byte[] buf) throws IOException {
+        int len = readFully(stat, buf);
+
+        int start = -1;
+        for (int i = len - 1; i >= 0; i--) {
+            if (buf[i] == ')') {
+                start = i + 4; // Skip ") S "
+                break;
+            }
+        }
+
+        if (start == -1 || start >= len) return -1;
+
+        int end = start;
+        while (end < len && buf[end] != ' ') end++;
+        return (int) parseLong(buf, start, end);
+    }
+
+    boolean available() {
+        return clockTicks > 0 && pageSize > 0 && statFile.canRead() && statmFile.canRead();
+    }
+
+    /**
+     * @return the current usage or {@code null} if this is the first sample
+     * @throws IOException if the process files cannot be read (usually because the process is gone)
+     */
+    @Nullable
+    MonitorUpdate sample() throws IOException {
+        long now = SystemClock.elapsedRealtime();
+        long ticks = readCpuTicks();
+        long rssPages = readRssPages();
+
+        long prevTicks = lastTicks;
+        long prevTime = lastTime;
+        lastTicks = ticks;
+        lastTime = now;
+        if (prevTicks == -1 || now <= prevTime) return null;
+
+        float cpu = (ticks - prevTicks) * 100000f / (clockTicks * (now - prevTime));
+        return MonitorUpdate.obtain(pid, formatCpu(cpu), (int) Math.min(Integer.MAX_VALUE, rssPages * pageSize));
+    }
+
+    private long readCpuTicks() throws IOException {
+        int len = readFully(statFile, buffer);
+
+        // The command name is enclosed in parenthesis and may contain spaces
+        int start = -1;
+        for (int i = len - 1; i >= 0; i--) {
+            if (buffer[i] == ')') {
+                start = i + 2;
+                break;
+            }
+        }
+
+        if (start == -1) throw new IOException("Malformed " + statFile);
+
+        long ticks = 0;
+        int field = 3;
+        int tokenStart = start;
+        for (int i = start; i <= len; i++) {
+            if (i == len || buffer[i] == ' ' || buffer[i] == '\n') {
+                if (field == STAT_UTIME_FIELD) {
+                    ticks += parseLong(buffer, tokenStart, i);
+                } else if (field == STAT_STIME_FIELD) {
+                    ticks += parseLong(buffer, tokenStart, i);
+                    return ticks;
+                }
+
+                field++;
+                tokenStart = i + 1;
+            }
+        }
+
+        throw new IOException("Malformed " + statFile);
+    }
+
+    private long readRssPages() throws IOException {
+        int len = readFully(statmFile, buffer);
+
+        int tokenStart = -1;
+        for (int i = 0; i <= len; i++) {
+            if (i == len || buffer[i] == ' ' || buffer[i] == '\n') {
+                if (tokenStart != -1) return parseLong(buffer, tokenStart, i);
+                tokenStart = i + 1;
+            }
+        }
+
+        throw new IOException("Malformed " + statmFile);
+    }
+}
@@ -0,0 +1,154 @@
+package com.gianlu.aria2lib.internal;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Difference between the parameters of the running aria2c process and the ones of the current environment.
+ * Options that {@code aria2.changeGlobalOption} accepts are applied live, any other change requires a restart.
+ * The options derived from the device environment are only reported, they are picked up at the next start.
+ */
+public final class Reconfiguration {
+    /**
+     * The global options plus the input file options accepted by {@code aria2.changeGlobalOption},
+     * minus the ones that only make sense for a single download.
+     */
+    private static final Set<String> LIVE_OPTIONS = new HashSet<>(Arrays.asList(
+            "--bt-max-open-files", "--download-result", "--keep-unfinished-download-result", "--log", "--log-level",
+            "--max-concurrent-downloads", "--max-download-result", "--max-overall-download-limit", "--max-overall-upload-limit",
+            "--optimize-concurrent-downloads", "--save-cookies", "--save-session", "--server-stat-of",
+            "--all-proxy", "--all-proxy-passwd", "--all-proxy-user", "--allow-overwrite", "--allow-piece-length-change",
+            "--always-resume", "--async-dns", "--auto-file-renaming", "--bt-enable-hook-after-hash-check", "--bt-enable-lpd",
+            "--bt-exclude-tracker", "--bt-external-ip", "--bt-force-encryption", "--bt-hash-check-seed", "--bt-load-saved-metadata",
+            "--bt-max-peers", "--bt-metadata-only", "--bt-min-crypto-level", "--bt-prioritize-piece", "--bt-remove-unselected-file",
+            "--bt-request-peer-speed-limit", "--bt-require-crypto", "--bt-save-metadata", "--bt-seed-unverified", "--bt-stop-timeout",
+            "--bt-tracker", "--bt-tracker-connect-timeout", "--bt-tracker-interval", "--bt-tracker-timeout", "--check-integrity",
+            "--conditional-get", "--connect-timeout", "--content-disposition-default-utf8", "--continue", "--dir", "--dry-run",
+            "--enable-http-keep-alive", "--enable-http-pipelining", "--enable-mmap", "--enable-peer-exchange", "--file-allocation",
+            "--follow-metalink", "--follow-torrent", "--force-save", "--ftp-passwd", "--ftp-pasv", "--ftp-proxy", "--ftp-proxy-passwd",
+            "--ftp-proxy-user", "--ftp-reuse-connection", "--ftp-type", "--ftp-user", "--hash-check-only", "--header",
+            "--http-accept-gzip", "--http-auth-challenge", "--http-no-cache", "--http-passwd", "--http-proxy", "--http-proxy-passwd",
+            "--http-proxy-user", "--http-user", "--https-proxy", "--https-proxy-passwd", "--https-proxy-user", "--lowest-speed-limit",
+            "--max-connection-per-server", "--max-download-limit", "--max-file-not-found", "--max-mmap-limit",
+            "--max-resume-failure-tries", "--max-tries", "--max-upload-limit", "--metalink-base-uri",
+            "--metalink-enable-unique-protocol", "--metalink-language", "--metalink-location", "--metalink-os",
+            "--metalink-preferred-protocol", "--metalink-version", "--min-split-size", "--no-file-allocation-limit", "--no-netrc",
+            "--no-proxy", "--parameterized-uri", "--pause-metadata", "--piece-length", "--proxy-method", "--realtime-chunk-checksum",
+            "--referer", "--remote-time", "--remove-control-file", "--retry-wait", "--reuse-uri", "--rpc-save-upload-metadata",
+            "--seed-ratio", "--seed-time", "--split", "--ssh-host-key-md", "--stream-piece-selector", "--timeout", "--uri-selector",
+            "--use-head", "--user-agent"));
+    /**
+     * Options whose value depends on the device rather than on the configuration, like the discovered DNS servers.
+     */
+    private static final Set<String> ENVIRONMENT_OPTIONS = new HashSet<>(Arrays.asList("--async-dns-server", "--ca-certificate"));
+    static final Reconfiguration NOT_RUNNING = new Reconfiguration(false, Collections.emptyMap(), Collections.emptyList(), Collections.emptyList());
+    public final boolean running;
+    /**
+     * Options applied live, without the leading dashes, as sent to {@code aria2.changeGlobalOption}. Empty if restarted.
+     */
+    public final Map<String, String> changed;
+    /**
+     * Why the process must be restarted to apply the configuration, empty if it doesn't.
+     */
+    public final List<String> restartReasons;
+    /**
+     * Environment derived options that changed, they don't trigger a restart.
+     */
+    public final List<String> environmentChanges;
+
+    private Reconfiguration(boolean running, @NonNull Map<String, String> changed, @NonNull List<String> restartReasons, @NonNull List<String> environmentChanges) {
+        this.running = running;
+        this.changed = Collections.unmodifiableMap(changed);
+        this.restartReasons = Collections.unmodifiableList(restartReasons);
+        this.environmentChanges = Collections.unmodifiableList(environmentChanges);
+    }
+
+    @NonNull
+    static Reconfiguration diff(@NonNull Map<String, String> current, @NonNull Map<String, String> next) {
+        Map<String, String> changed = new TreeMap<>();
+        List<String> reasons = new ArrayList<>();
+        List<String> environment = new ArrayList<>();
+        for (Map.Entry<String, String> entry : next.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue() == null ? "" : entry.getValue();
+            String old = current.containsKey(key) ? (current.get(key) == null ? "" : current.get(key)) : null;
+            if (value.equals(old)) continue;
+
+            if (ENVIRONMENT_OPTIONS.contains(key))
+                environment.add(key + (old == null ? " added" : " changed"));
+            else if (LIVE_OPTIONS.contains(key))
+                changed.put(key.substring(2), value.isEmpty() ? "true" : value);
+            else
+                reasons.add(key + (old == null ? " added" : " changed"));
+        }
+
+        for (String key : current.keySet()) {
+            if (next.containsKey(key)) continue;
+
+            if (ENVIRONMENT_OPTIONS.contains(key)) environment.add(key + " removed");
+            else reasons.add(key + " removed");
+        }
+
+        Collections.sort(reasons);
+        Collections.sort(environment);
+        return new Reconfiguration(true, reasons.isEmpty() ? changed : Collections.emptyMap(), reasons, environment);
+    }
+
+    /**
+     * @return the parameters the process runs with once the live options have been applied, environment derived options keep their current value
+     */
+    @NonNull
+    static Map<String, String> applied(@NonNull Map<String, String> current, @NonNull Map<String, String> next) {
+        Map<String, String> applied = new HashMap<>(next);
+        for (String key : ENVIRONMENT_OPTIONS) {
+            if (current.containsKey(key)) applied.put(key, current.get(key));
+            else applied.remove(key);
+        }
+
+        return applied;
+    }
+
+    @NonNull
+    Reconfiguration restartRequiredBecause(@NonNull String reason) {
+        List<String> reasons = new ArrayList<>(restartReasons);
+        reasons.add(reason);
+        return new Reconfiguration(running, Collections.emptyMap(), reasons, environmentChanges);
+    }
+
+    public boolean restartRequired() {
+        return !restartReasons.isEmpty();
+    }
+
+    /**
+     * @return whether nothing changed
+     */
+    public boolean isEmpty() {
+        return changed.isEmpty() && restartReasons.isEmpty() && environmentChanges.isEmpty();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        String str;
+        if (!running) return "Not running";
+        else if (restartRequired()) str = "Restart required: " + TextUtils.join(", ", restartReasons);
+        else if (!changed.isEmpty()) str = "Changed live: " + changed.keySet();
+        else str = "Nothing changed";
+
+        if (!environmentChanges.isEmpty())
+            str += "; applied at next start: " + TextUtils.join(", ", environmentChanges);
+
+        return str;
+    }
+}
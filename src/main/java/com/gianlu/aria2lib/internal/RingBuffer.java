@@ -0,0 +1,93 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Fixed-capacity circular buffer, once full every new element overwrites the oldest one.
+ * Not thread-safe.
+ */
+public final class RingBuffer<E> {
+    private final Object[] items;
+    private long written = 0;
+    private long first = 0;
+
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        items = new Object[capacity];
+    }
+
+    public void add(@NonNull E item) {
+        items[(int) (written % items.length)] = item;
+        written++;
+    }
+
+    public void clear() {
+        Arrays.fill(items, null);
+        first = written;
+    }
+
+    public int capacity() {
+        return items.length;
+    }
+
+    public int size() {
+        return (int) (written - oldest());
+    }
+
+    /**
+     * @param index the position from the oldest element
+     */
+    @NonNull
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+
+        return (E) items[(int) ((oldest() + index) % items.length)];
+    }
+
+    private long oldest() {
+        return Math.max(first, written - items.length);
+    }
+
+    /**
+     * @return a read-only view of the current content, oldest first. The view doesn't copy the elements:
+     * accessing an element that has been overwritten since throws {@link ConcurrentModificationException}.
+     */
+    @NonNull
+    public List<E> snapshot() {
+        return new View(oldest(), written);
+    }
+
+    private class View extends AbstractList<E> implements RandomAccess {
+        private final long from;
+        private final long to;
+
+        View(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+
+            long seq = from + index;
+            if (seq < oldest()) throw new ConcurrentModificationException();
+            return (E) items[(int) (seq % items.length)];
+        }
+
+        @Override
+        public int size() {
+            return (int) (to - from);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the local RPC port until aria2c accepts a connection or the probe is closed. The port is checked again as soon as aria2c
+ * reports that it is listening, see {@link #onOutputLine(String)}, instead of waiting for the next retry.
+ * Past the slow threshold the retry delay grows exponentially, but the probe keeps going.
+ */
+final class RpcReadinessProbe implements Runnable, Closeable {
+    private static final int CONNECT_TIMEOUT_MS = 100;
+    private static final int RETRY_DELAY_MS = 25;
+    private static final int MAX_RETRY_DELAY_MS = 1000;
+    private static final String LISTENING_LINE = "RPC: listening on TCP port";
+    private final Object lock = new Object();
+    private final int port;
+    private final int slowThresholdMs;
+    private final Listener listener;
+    private final long startNanos;
+    private volatile boolean closed = false;
+    private boolean hinted = false;
+
+    /**
+     * @param startNanos the {@link System#nanoTime()} the latency is measured from, usually when the process has been spawned
+     */
+    RpcReadinessProbe(int port, int slowThresholdMs, long startNanos, @NonNull Listener listener) {
+        this.port = port;
+        this.startNanos = startNanos;
+        this.slowThresholdMs = slowThresholdMs;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        long slowAt = startNanos + TimeUnit.MILLISECONDS.toNanos(slowThresholdMs);
+        boolean slow = false;
+        long delay = RETRY_DELAY_MS;
+        while (!closed) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), CONNECT_TIMEOUT_MS);
+                if (!closed) listener.onReady(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                return;
+            } catch (IOException ignored) {
+            }
+
+            if (!slow && System.nanoTime() - slowAt >= 0) {
+                slow = true;
+                if (!closed) listener.onSlow();
+            }
+
+            if (slow) delay = Math.min(delay * 2, MAX_RETRY_DELAY_MS);
+
+            try {
+                synchronized (lock) {
+                    if (!hinted && !closed) lock.wait(delay);
+                    hinted = false;
+                }
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checks the port right away if the line is the one aria2c prints once its RPC server is listening.
+     */
+    void onOutputLine(@NonNull String line) {
+        if (closed || !line.contains(LISTENING_LINE)) return;
+
+        synchronized (lock) {
+            hinted = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    interface Listener {
+        /**
+         * @param elapsedMillis the time since {@code startNanos}
+         */
+        void onReady(long elapsedMillis);
+
+        /**
+         * Called once when the slow threshold is exceeded, the probe keeps going until {@link #onReady(long)} or until it is closed.
+         */
+        void onSlow();
+    }
+}
@@ -0,0 +1,245 @@
+package com.gianlu.aria2lib.internal;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites the session file without duplicate entries and without the entries whose file is already complete on disk,
+ * so that aria2c has less to load at startup. The file is streamed one entry at a time and replaced atomically,
+ * the original is kept as {@code session.bak}. Only plain URI entries with an explicit {@code out} option are checked for
+ * completion: the name aria2c picks otherwise depends on the server and on auto renaming, torrents and metalinks can target more than one file.
+ */
+final class SessionCompactor {
+    private static final String TAG = SessionCompactor.class.getSimpleName();
+    private static final String CONTROL_FILE_SUFFIX = ".aria2";
+    private static final String BACKUP_SUFFIX = ".bak";
+    private final String defaultDir;
+    private final Set<Digest> seen = new HashSet<>();
+    private final StringBuilder entry = new StringBuilder();
+    private final Result result = new Result();
+    private String header = null;
+    private String dir = null;
+    private String out = null;
+
+    private SessionCompactor(@Nullable String defaultDir) {
+        this.defaultDir = defaultDir;
+    }
+
+    /**
+     * @param defaultDir        the global download directory, used for entries without a {@code dir} option
+     * @param lastStartupMillis the last spawn-to-ready latency used to estimate the time saved, 0 if unknown
+     */
+    @WorkerThread
+    @NonNull
+    static Result compact(@NonNull File session, @Nullable String defaultDir, long lastStartupMillis) throws IOException {
+        long start = System.nanoTime();
+        SessionCompactor compactor = new SessionCompactor(defaultDir);
+        Result result = compactor.result;
+        if (!session.exists()) return result;
+
+        result.bytesBefore = session.length();
+        File tmp = new File(session.getParentFile(), session.getName() + ".compacting");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(session), StandardCharsets.UTF_8));
+             FileOutputStream fos = new FileOutputStream(tmp)) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8));
+            compactor.process(reader, writer);
+            writer.flush();
+            if (result.removed() > 0) fos.getFD().sync();
+        } catch (IOException ex) {
+            if (!tmp.delete()) Log.w(TAG, "Failed deleting " + tmp);
+            throw ex;
+        }
+
+        if (result.removed() > 0) {
+            try {
+                backup(session);
+            } catch (IOException ex) {
+                if (!tmp.delete()) Log.w(TAG, "Failed deleting " + tmp);
+                throw ex;
+            }
+
+            if (!tmp.renameTo(session)) {
+                if (!tmp.delete()) Log.w(TAG, "Failed deleting " + tmp);
+                throw new IOException("Failed replacing " + session);
+            }
+
+            result.bytesAfter = session.length();
+            if (lastStartupMillis > 0 && result.entriesBefore > 0)
+                result.estimatedSavedMillis = lastStartupMillis * result.removed() / result.entriesBefore;
+        } else {
+            if (!tmp.delete()) Log.w(TAG, "Failed deleting " + tmp);
+            result.bytesAfter = result.bytesBefore;
+        }
+
+        result.durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        return result;
+    }
+
+    private static void backup(@NonNull File session) throws IOException {
+        File backup = new File(session.getParentFile(), session.getName() + BACKUP_SUFFIX);
+        File tmp = new File(session.getParentFile(), backup.getName() + ".tmp");
+        try (FileInputStream in = new FileInputStream(session); FileOutputStream out = new FileOutputStream(tmp)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+            out.getFD().sync();
+        }
+
+        if (!tmp.renameTo(backup)) {
+            if (!tmp.delete()) Log.w(TAG, "Failed deleting " + tmp);
+            throw new IOException("Failed writing " + backup);
+        }
+    }
+
+    private void process(@NonNull BufferedReader reader, @NonNull Writer writer) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t')) {
+                if (header == null) {
+                    writer.write(line);
+                    writer.write('\n');
+                    continue;
+                }
+
+                acceptOption(line);
+                entry.append(line).append('\n');
+            } else {
+                endEntry(writer);
+
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    writer.write(line);
+                    writer.write('\n');
+                } else {
+                    header = line;
+                    entry.append(line).append('\n');
+                }
+            }
+        }
+
+        endEntry(writer);
+    }
+
+    private void acceptOption(@NonNull String line) {
+        String option = line.trim();
+        if (option.startsWith("dir=")) dir = option.substring(4);
+        else if (option.startsWith("out=")) out = option.substring(4);
+    }
+
+    private void endEntry(@NonNull Writer writer) throws IOException {
+        if (header == null) return;
+
+        result.entriesBefore++;
+        if (!seen.add(new Digest(header, dir, out))) {
+            result.duplicatesRemoved++;
+        } else if (isComplete()) {
+            result.completedRemoved++;
+        } else {
+            writer.append(entry);
+        }
+
+        entry.setLength(0);
+        header = null;
+        dir = null;
+        out = null;
+    }
+
+    private boolean isComplete() {
+        int tab = header.indexOf('\t');
+        String firstUri = tab == -1 ? header : header.substring(0, tab);
+        if (SessionInspector.classify(firstUri) != SessionInspector.Kind.URI) return false;
+
+        String parent = dir != null ? dir : defaultDir;
+        if (out == null || out.isEmpty() || parent == null || parent.isEmpty()) return false;
+
+        File file = new File(parent, out);
+        return file.isFile() && file.length() > 0 && !new File(file.getPath() + CONTROL_FILE_SUFFIX).exists();
+    }
+
+    /**
+     * Two independent 64-bit hashes of the entry header, {@code dir} and {@code out}. Remembering this instead of the text
+     * keeps {@link #seen} at a few dozen bytes per entry however long the URIs are, two different entries are taken for
+     * duplicates only if both hashes collide.
+     */
+    private static final class Digest {
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
+        private static final long NULL_MARKER = 0x9e3779b97f4a7c15L;
+        private long fnv = FNV_OFFSET;
+        private long poly = 1;
+
+        Digest(@NonNull String header, @Nullable String dir, @Nullable String out) {
+            update(header);
+            update(dir);
+            update(out);
+        }
+
+        private void update(@Nullable String str) {
+            if (str == null) {
+                fnv = (fnv ^ NULL_MARKER) * FNV_PRIME;
+                poly = poly * 31 + NULL_MARKER;
+                return;
+            }
+
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                fnv = (fnv ^ c) * FNV_PRIME;
+                poly = poly * 1_000_003 + c;
+            }
+
+            fnv = (fnv ^ str.length()) * FNV_PRIME;
+            poly = poly * 1_000_003 + str.length();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Digest digest = (Digest) o;
+            return fnv == digest.fnv && poly == digest.poly;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (fnv ^ (fnv >>> 32));
+        }
+    }
+
+    static final class Result {
+        long entriesBefore;
+        long duplicatesRemoved;
+        long completedRemoved;
+        long bytesBefore;
+        long bytesAfter;
+        long durationMicros;
+        long estimatedSavedMillis;
+
+        long removed() {
+            return duplicatesRemoved + completedRemoved;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Session compacted: " + removed() + " of " + entriesBefore + " entries removed (" + duplicatesRemoved + " duplicates, "
+                    + completedRemoved + " completed), " + bytesBefore + " -> " + bytesAfter + " bytes in " + durationMicros
+                    + "us, about " + estimatedSavedMillis + "ms saved at startup";
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming parser for the aria2 session format: every entry starts with a line of tab separated URIs
+ * (or the path of a .torrent/.metalink file) followed by indented {@code key=value} option lines.
+ * Only a fixed amount of every line is kept, so memory usage doesn't depend on the size of the file.
+ */
+public final class SessionInspector {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_KEY_LENGTH = 64;
+    private static final int MAX_VALUE_LENGTH = 16;
+    private static final int TAIL_LENGTH = 16;
+    private static final int STATE_LINE_START = 0;
+    private static final int STATE_HEADER = 1;
+    private static final int STATE_OPTION_INDENT = 2;
+    private static final int STATE_OPTION_KEY = 3;
+    private static final int STATE_OPTION_VALUE = 4;
+    private static final int STATE_SKIP = 5;
+    private final Stats stats = new Stats();
+    private final StringBuilder head = new StringBuilder(TAIL_LENGTH);
+    private final char[] tail = new char[TAIL_LENGTH];
+    private final StringBuilder key = new StringBuilder(MAX_KEY_LENGTH);
+    private final StringBuilder value = new StringBuilder(MAX_VALUE_LENGTH);
+    private int state = STATE_LINE_START;
+    private boolean inEntry = false;
+    private boolean inFirstUri = false;
+    private boolean uriHasChars = false;
+    private int tailLength = 0;
+    private int entryOptions = 0;
+    private boolean entryPaused = false;
+
+    private SessionInspector() {
+    }
+
+    /**
+     * @return the statistics of the given session file, all zero if it doesn't exist
+     */
+    @WorkerThread
+    @NonNull
+    public static Stats inspect(@NonNull File session) throws IOException {
+        long start = System.nanoTime();
+        SessionInspector inspector = new SessionInspector();
+        if (session.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(session), StandardCharsets.UTF_8)) {
+                inspector.parse(reader);
+            }
+
+            inspector.stats.bytes = session.length();
+        }
+
+        inspector.stats.parseMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        return inspector.stats;
+    }
+
+    @NonNull
+    static Kind classify(@NonNull String firstUri) {
+        String lower = firstUri.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("magnet:")) return Kind.MAGNET;
+        else if (lower.endsWith(".torrent")) return Kind.TORRENT;
+        else if (lower.endsWith(".meta4") || lower.endsWith(".metalink")) return Kind.METALINK;
+        else return Kind.URI;
+    }
+
+    private void parse(@NonNull Reader reader) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++)
+                accept(buffer[i]);
+        }
+
+        accept('\n');
+        endEntry();
+    }
+
+    private void accept(char c) {
+        if (c == '\r') return;
+
+        if (c == '\n') {
+            endLine();
+            state = STATE_LINE_START;
+            return;
+        }
+
+        switch (state) {
+            case STATE_LINE_START:
+                stats.lines++;
+                if (c == ' ' || c == '\t') {
+                    if (inEntry) {
+                        state = STATE_OPTION_INDENT;
+                    } else {
+                        stats.malformedLines++;
+                        state = STATE_SKIP;
+                    }
+                } else if (c == '#') {
+                    state = STATE_SKIP;
+                } else {
+                    endEntry();
+                    startEntry();
+                    state = STATE_HEADER;
+                    acceptUri(c);
+                }
+                break;
+            case STATE_HEADER:
+                acceptUri(c);
+                break;
+            case STATE_OPTION_INDENT:
+                if (c == ' ' || c == '\t') break;
+                state = STATE_OPTION_KEY;
+                // fall through
+            case STATE_OPTION_KEY:
+                if (c == '=') state = STATE_OPTION_VALUE;
+                else if (key.length() < MAX_KEY_LENGTH) key.append(c);
+                break;
+            case STATE_OPTION_VALUE:
+                if (value.length() < MAX_VALUE_LENGTH) value.append(c);
+                break;
+            case STATE_SKIP:
+            default:
+                break;
+        }
+    }
+
+    private void acceptUri(char c) {
+        if (c == '\t') {
+            if (uriHasChars) stats.uris++;
+            uriHasChars = false;
+            inFirstUri = false;
+            return;
+        }
+
+        uriHasChars = true;
+        if (inFirstUri) {
+            if (head.length() < TAIL_LENGTH) head.append(c);
+            tail[tailLength % TAIL_LENGTH] = c;
+            tailLength++;
+        }
+    }
+
+    private void endLine() {
+        switch (state) {
+            case STATE_HEADER:
+                if (uriHasChars) stats.uris++;
+                uriHasChars = false;
+                inFirstUri = false;
+                break;
+            case STATE_OPTION_KEY:
+            case STATE_OPTION_VALUE:
+                if (key.length() > 0) {
+                    entryOptions++;
+                    if (key.toString().equals("pause") && value.toString().trim().equals("true"))
+                        entryPaused = true;
+                } else {
+                    stats.malformedLines++;
+                }
+
+                key.setLength(0);
+                value.setLength(0);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void startEntry() {
+        inEntry = true;
+        inFirstUri = true;
+        uriHasChars = false;
+        head.setLength(0);
+        tailLength = 0;
+        entryOptions = 0;
+        entryPaused = false;
+    }
+
+    private void endEntry() {
+        if (!inEntry) return;
+        inEntry = false;
+
+        stats.entries++;
+        switch (classify(firstUriSample())) {
+            case MAGNET:
+                stats.magnets++;
+                break;
+            case TORRENT:
+                stats.torrents++;
+                break;
+            case METALINK:
+                stats.metalinks++;
+                break;
+            case URI:
+            default:
+                stats.uriEntries++;
+                break;
+        }
+
+        if (entryPaused) stats.paused++;
+        else stats.active++;
+
+        stats.options += entryOptions;
+        stats.maxOptions = Math.max(stats.maxOptions, entryOptions);
+        stats.optionsHistogram[Math.min(entryOptions, Stats.HISTOGRAM_SIZE - 1)]++;
+    }
+
+    /**
+     * @return the first characters of the first URI followed by the last ones, enough to check its scheme and extension
+     */
+    @NonNull
+    private String firstUriSample() {
+        StringBuilder builder = new StringBuilder(head.length() + TAIL_LENGTH + 1).append(head).append('\n');
+        int length = Math.min(tailLength, TAIL_LENGTH);
+        for (int i = tailLength - length; i < tailLength; i++)
+            builder.append(tail[i % TAIL_LENGTH]);
+
+        return builder.toString();
+    }
+
+    enum Kind {
+        URI, TORRENT, METALINK, MAGNET
+    }
+
+    public static final class Stats {
+        /**
+         * The last bucket of {@link #optionsHistogram} counts the entries with at least {@code HISTOGRAM_SIZE - 1} options.
+         */
+        public static final int HISTOGRAM_SIZE = 32;
+        public final long[] optionsHistogram = new long[HISTOGRAM_SIZE];
+        public long entries;
+        public long uriEntries;
+        public long torrents;
+        public long metalinks;
+        public long magnets;
+        public long paused;
+        public long active;
+        /**
+         * Total number of URIs, an entry can list more than one mirror.
+         */
+        public long uris;
+        public long options;
+        public int maxOptions;
+        public long lines;
+        public long malformedLines;
+        public long bytes;
+        public long parseMicros;
+
+        Stats() {
+        }
+
+        public double averageOptions() {
+            return entries == 0 ? 0 : (double) options / entries;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Stats{entries=" + entries + ", uriEntries=" + uriEntries + ", torrents=" + torrents + ", metalinks=" + metalinks
+                    + ", magnets=" + magnets + ", paused=" + paused + ", active=" + active + ", uris=" + uris + ", options=" + options
+                    + ", maxOptions=" + maxOptions + ", optionsHistogram=" + Arrays.toString(optionsHistogram) + ", lines=" + lines
+                    + ", malformedLines=" + malformedLines + ", bytes=" + bytes + ", parseMicros=" + parseMicros + '}';
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spans of the service startup, from the start intent to aria2c accepting RPC connections.
+ * Only the most recent {@link #CAPACITY} spans are kept, in memory.
+ */
+public final class StartupTrace {
+    public static final String INTENT = "intent";
+    public static final String ON_START_COMMAND = "onStartCommand";
+    public static final String ENV_PREPARATION = "envPreparation";
+    public static final String SESSION_COMPACTION = "sessionCompaction";
+    public static final String SPAWN = "spawn";
+    public static final String FIRST_OUTPUT = "firstOutput";
+    public static final String RPC_ACCEPTING = "rpcAccepting";
+    private static final int CAPACITY = 64;
+    private static final RingBuffer<Span> spans = new RingBuffer<>(CAPACITY);
+    private static final Map<String, long[]> open = new HashMap<>();
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Opens a span, replacing the one with the same name that is still open.
+     */
+    static void begin(@NonNull String name) {
+        synchronized (spans) {
+            open.put(name, new long[]{System.currentTimeMillis(), System.nanoTime()});
+        }
+    }
+
+    /**
+     * Closes the span, does nothing if it isn't open.
+     */
+    static void end(@NonNull String name) {
+        long now = System.nanoTime();
+        synchronized (spans) {
+            long[] start = open.remove(name);
+            if (start != null)
+                spans.add(new Span(name, start[0], TimeUnit.NANOSECONDS.toMicros(now - start[1])));
+        }
+    }
+
+    /**
+     * Drops the span without recording it.
+     */
+    static void cancel(@NonNull String name) {
+        synchronized (spans) {
+            open.remove(name);
+        }
+    }
+
+    /**
+     * @return the recorded spans, oldest first
+     */
+    @NonNull
+    public static List<Span> spans() {
+        synchronized (spans) {
+            return Collections.unmodifiableList(new ArrayList<>(spans.snapshot()));
+        }
+    }
+
+    public static void clear() {
+        synchronized (spans) {
+            spans.clear();
+            open.clear();
+        }
+    }
+
+    /**
+     * @return the recorded spans as {@code {"spans": [{"name": ..., "start": epochMillis, "durationUs": ...}, ...]}}
+     */
+    @NonNull
+    public static JSONObject toJson() throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Span span : spans()) {
+            JSONObject obj = new JSONObject();
+            obj.put("name", span.name);
+            obj.put("start", span.startMillis);
+            obj.put("durationUs", span.durationMicros);
+            array.put(obj);
+        }
+
+        JSONObject obj = new JSONObject();
+        obj.put("spans", array);
+        return obj;
+    }
+
+    public static final class Span {
+        public final String name;
+        public final long startMillis;
+        public final long durationMicros;
+
+        Span(@NonNull String name, long startMillis, long durationMicros) {
+            this.name = name;
+            this.startMillis = startMillis;
+            this.durationMicros = durationMicros;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return name + "=" + durationMicros + "us";
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-size ring buffer of aria2 global stats samples backed by primitive arrays.
+ */
+public final class TransferHistory {
+    private final long[] timestamps;
+    private final long[] downloadSpeeds;
+    private final long[] uploadSpeeds;
+    private final int[] numActive;
+    private final int[] numWaiting;
+    private final int[] numStopped;
+    private int head = 0;
+    private int size = 0;
+
+    TransferHistory(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+
+        timestamps = new long[capacity];
+        downloadSpeeds = new long[capacity];
+        uploadSpeeds = new long[capacity];
+        numActive = new int[capacity];
+        numWaiting = new int[capacity];
+        numStopped = new int[capacity];
+    }
+
+    synchronized void add(long timestamp, @NonNull MonitorUpdate update) {
+        timestamps[head] = timestamp;
+        downloadSpeeds[head] = update.downloadSpeed();
+        uploadSpeeds[head] = update.uploadSpeed();
+        numActive[head] = update.numActive();
+        numWaiting[head] = update.numWaiting();
+        numStopped[head] = update.numStopped();
+
+        head = (head + 1) % timestamps.length;
+        if (size < timestamps.length) size++;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * @param minutes how far back to look, relative to the most recent sample
+     * @return a copy of the samples in the given window, oldest first
+     */
+    @NonNull
+    public synchronized Window last(int minutes) {
+        if (size == 0) return new Window(0);
+
+        int capacity = timestamps.length;
+        int newest = (head - 1 + capacity) % capacity;
+        long since = timestamps[newest] - TimeUnit.MINUTES.toMillis(minutes);
+
+        int count = 0;
+        while (count < size && timestamps[(newest - count + capacity) % capacity] >= since)
+            count++;
+
+        Window window = new Window(count);
+        int start = (head - count + capacity) % capacity;
+        for (int i = 0; i < count; i++) {
+            int j = (start + i) % capacity;
+            window.timestamps[i] = timestamps[j];
+            window.downloadSpeeds[i] = downloadSpeeds[j];
+            window.uploadSpeeds[i] = uploadSpeeds[j];
+            window.numActive[i] = numActive[j];
+            window.numWaiting[i] = numWaiting[j];
+            window.numStopped[i] = numStopped[j];
+        }
+
+        return window;
+    }
+
+    public static final class Window {
+        public final int size;
+        public final long[] timestamps;
+        public final long[] downloadSpeeds;
+        public final long[] uploadSpeeds;
+        public final int[] numActive;
+        public final int[] numWaiting;
+        public final int[] numStopped;
+
+        private Window(int size) {
+            this.size = size;
+            this.timestamps = new long[size];
+            this.downloadSpeeds = new long[size];
+            this.uploadSpeeds = new long[size];
+            this.numActive = new int[size];
+            this.numWaiting = new int[size];
+            this.numStopped = new int[size];
+        }
+    }
+}
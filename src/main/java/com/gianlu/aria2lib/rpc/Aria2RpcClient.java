@@ -0,0 +1,562 @@
+package com.gianlu.aria2lib.rpc;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.gianlu.aria2lib.Aria2PK;
+import com.gianlu.aria2lib.internal.Aria2;
+import com.gianlu.aria2lib.internal.Message;
+import com.gianlu.commonutils.preferences.Prefs;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Persistent JSON-RPC client for aria2 over a single WebSocket connection.
+ * Calls are queued, sent as soon as the socket is open and matched with their response by id.
+ * Calls issued within the batch window are packed into a single {@code system.multicall} request.
+ * A call that isn't answered within the call timeout fails, whether it has been sent or not.
+ */
+public final class Aria2RpcClient implements Closeable {
+    private static final String TAG = Aria2RpcClient.class.getSimpleName();
+    private static final int DEFAULT_BATCH_WINDOW_MS = 4;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 32;
+    private static final long MIN_RECONNECT_DELAY_MS = 250;
+    private static final long MAX_RECONNECT_DELAY_MS = 10000;
+    private static final int DEFAULT_CALL_TIMEOUT_MS = 30000;
+    private final OkHttpClient client;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, PendingCall[]> inFlight = new ConcurrentHashMap<>();
+    private final List<PendingCall> outbox = new ArrayList<>();
+    private final Object lock = new Object();
+    private final boolean embedded;
+    private final Aria2.MessageListener processListener = msg -> {
+        if (msg.type() == Message.Type.RPC_READY) {
+            synchronized (lock) {
+                suspended = false;
+            }
+
+            if (!isConnected()) reconnect();
+        } else if (msg.type() == Message.Type.PROCESS_TERMINATED) {
+            synchronized (lock) {
+                suspended = true;
+            }
+
+            disconnect();
+        }
+    };
+    private volatile int batchWindowMs = DEFAULT_BATCH_WINDOW_MS;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile int callTimeoutMs = DEFAULT_CALL_TIMEOUT_MS;
+    private volatile NotificationListener notificationListener;
+    private String host;
+    private int port;
+    private String token;
+    private WebSocket webSocket;
+    private boolean connected = false;
+    private boolean closed = false;
+    /**
+     * Whether the embedded process isn't accepting connections, calls are queued until {@link Message.Type#RPC_READY} instead of dialing.
+     */
+    private boolean suspended = false;
+    private int reconnectAttempts = 0;
+    private ScheduledFuture<?> flushTask;
+    private ScheduledFuture<?> reconnectTask;
+
+    private Aria2RpcClient(@NonNull OkHttpClient client, @NonNull String host, int port, @Nullable String token, boolean embedded) {
+        this.client = client;
+        this.host = host;
+        this.port = port;
+        this.token = token;
+        this.embedded = embedded;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "aria2-rpc"));
+    }
+
+    public Aria2RpcClient(@NonNull OkHttpClient client, @NonNull String host, int port, @Nullable String token) {
+        this(client, host, port, token, false);
+    }
+
+    public Aria2RpcClient(@NonNull String host, int port, @Nullable String token) {
+        this(new OkHttpClient(), host, port, token, false);
+    }
+
+    /**
+     * Creates a client for the aria2c process managed by {@link Aria2}.
+     * The client follows the process lifecycle: it reconnects every time the process is (re)started and re-reads the RPC port and token.
+     * While the process isn't running calls are queued, they are sent once it's ready or fail when they time out.
+     */
+    @NonNull
+    public static Aria2RpcClient forEmbedded() {
+        Aria2RpcClient client = new Aria2RpcClient(new OkHttpClient(), "localhost", 0, null, true);
+        client.suspended = !Aria2.get().isRunning();
+        client.loadEmbeddedConfig();
+        Aria2.get().addListener(client.processListener);
+        return client;
+    }
+
+    private void loadEmbeddedConfig() {
+        synchronized (lock) {
+            host = "localhost";
+            port = Prefs.getInt(Aria2PK.RPC_PORT, 6800);
+            token = Prefs.getString(Aria2PK.RPC_TOKEN);
+        }
+    }
+
+    public void setBatchWindow(int millis) {
+        if (millis < 0) throw new IllegalArgumentException("Negative batch window: " + millis);
+        batchWindowMs = millis;
+    }
+
+    public void setMaxBatchSize(int size) {
+        if (size < 1) throw new IllegalArgumentException("Invalid batch size: " + size);
+        maxBatchSize = size;
+    }
+
+    /**
+     * @param millis how long a call waits for its response, including the time spent queued
+     */
+    public void setCallTimeout(int millis) {
+        if (millis <= 0) throw new IllegalArgumentException("Invalid call timeout: " + millis);
+        callTimeoutMs = millis;
+    }
+
+    public void setNotificationListener(@Nullable NotificationListener listener) {
+        notificationListener = listener;
+    }
+
+    public boolean isConnected() {
+        synchronized (lock) {
+            return connected;
+        }
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    public void connect() {
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("Client is closed!");
+            if (webSocket != null) return;
+
+            openSocket();
+        }
+    }
+
+    /**
+     * Drops the current connection (if any) and opens a new one immediately.
+     */
+    public void reconnect() {
+        synchronized (lock) {
+            if (closed) return;
+            if (embedded) loadEmbeddedConfig();
+
+            if (webSocket != null) {
+                WebSocket old = webSocket;
+                webSocket = null;
+                connected = false;
+                old.cancel();
+                failInFlight(new IOException("Reconnecting."));
+            }
+
+            reconnectAttempts = 0;
+            openSocket();
+        }
+    }
+
+    /**
+     * Closes the current connection without closing the client, queued calls will be sent on the next connection.
+     */
+    public void disconnect() {
+        synchronized (lock) {
+            if (reconnectTask != null) {
+                reconnectTask.cancel(false);
+                reconnectTask = null;
+            }
+
+            if (webSocket != null) {
+                WebSocket old = webSocket;
+                webSocket = null;
+                connected = false;
+                old.close(1000, null);
+            }
+
+            failInFlight(new IOException("Disconnected."));
+        }
+    }
+
+    private void openSocket() {
+        if (reconnectTask != null) {
+            reconnectTask.cancel(false);
+            reconnectTask = null;
+        }
+
+        Request request = new Request.Builder().url("ws://" + host + ":" + port + "/jsonrpc").build();
+        webSocket = client.newWebSocket(request, new Listener());
+    }
+
+    private void scheduleReconnect() {
+        if (closed || suspended || reconnectTask != null) return;
+
+        long delay = Math.min(MAX_RECONNECT_DELAY_MS, MIN_RECONNECT_DELAY_MS << Math.min(reconnectAttempts, 6));
+        reconnectAttempts++;
+        reconnectTask = executor.schedule(() -> {
+            synchronized (lock) {
+                reconnectTask = null;
+                if (closed || suspended || webSocket != null) return;
+                if (embedded) loadEmbeddedConfig();
+                openSocket();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public void call(@NonNull String method, @Nullable JSONArray params, @NonNull Callback callback) {
+        PendingCall call = new PendingCall(method, params, callback);
+        synchronized (lock) {
+            if (closed) {
+                callback.onException(new IOException("Client is closed!"));
+                return;
+            }
+
+            int timeout = callTimeoutMs;
+            call.timeoutTask = executor.schedule(() -> timedOut(call, timeout), timeout, TimeUnit.MILLISECONDS);
+
+            outbox.add(call);
+            if (webSocket == null && reconnectTask == null && !suspended) openSocket();
+            if (connected) scheduleFlush();
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    public Object callSync(@NonNull String method, @Nullable JSONArray params) throws Aria2RpcException, IOException, InterruptedException {
+        SyncCallback callback = new SyncCallback();
+        int timeout = callTimeoutMs;
+        call(method, params, callback);
+        return callback.await(timeout);
+    }
+
+    private void timedOut(@NonNull PendingCall call, int timeout) {
+        synchronized (lock) {
+            outbox.remove(call);
+        }
+
+        // If already sent, the other calls of its batch keep waiting and the response for this one is ignored
+        call.fail(new InterruptedIOException("Call timed out after " + timeout + "ms: " + call.method));
+    }
+
+    private void scheduleFlush() {
+        if (outbox.size() >= maxBatchSize) {
+            if (flushTask != null) flushTask.cancel(false);
+            flushTask = executor.schedule(this::flush, 0, TimeUnit.MILLISECONDS);
+        } else if (flushTask == null) {
+            flushTask = executor.schedule(this::flush, batchWindowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        List<PendingCall> batch;
+        WebSocket ws;
+        String secret;
+        synchronized (lock) {
+            flushTask = null;
+            if (!connected || outbox.isEmpty()) return;
+
+            ws = webSocket;
+            secret = token;
+            batch = new ArrayList<>(outbox);
+            outbox.clear();
+        }
+
+        int size = maxBatchSize;
+        for (int i = 0; i < batch.size(); i += size) {
+            List<PendingCall> chunk = batch.subList(i, Math.min(batch.size(), i + size));
+            PendingCall[] calls = chunk.toArray(new PendingCall[0]);
+            send(ws, secret, calls);
+        }
+    }
+
+    private void send(@NonNull WebSocket ws, @Nullable String secret, @NonNull PendingCall[] calls) {
+        long id = ids.incrementAndGet();
+
+        String payload;
+        try {
+            JSONObject request = new JSONObject();
+            request.put("jsonrpc", "2.0");
+            request.put("id", id);
+
+            if (calls.length == 1) {
+                request.put("method", calls[0].method);
+                request.put("params", calls[0].params(secret));
+            } else {
+                JSONArray list = new JSONArray();
+                for (PendingCall call : calls) {
+                    JSONObject obj = new JSONObject();
+                    obj.put("methodName", call.method);
+                    obj.put("params", call.params(secret));
+                    list.put(obj);
+                }
+
+                request.put("method", "system.multicall");
+                request.put("params", new JSONArray().put(list));
+            }
+
+            payload = request.toString();
+        } catch (JSONException ex) {
+            for (PendingCall call : calls) call.fail(ex);
+            return;
+        }
+
+        inFlight.put(id, calls);
+        if (!ws.send(payload)) {
+            inFlight.remove(id);
+            synchronized (lock) {
+                for (int i = calls.length - 1; i >= 0; i--) outbox.add(0, calls[i]);
+            }
+        }
+    }
+
+    private void handleMessage(@NonNull String text) {
+        JSONObject obj;
+        try {
+            obj = new JSONObject(text);
+        } catch (JSONException ex) {
+            Log.w(TAG, "Received invalid JSON: " + text, ex);
+            return;
+        }
+
+        if (obj.isNull("id")) {
+            handleNotification(obj);
+            return;
+        }
+
+        PendingCall[] calls = inFlight.remove(obj.optLong("id", -1));
+        if (calls == null) {
+            Log.w(TAG, "Received response for unknown request: " + text);
+            return;
+        }
+
+        JSONObject error = obj.optJSONObject("error");
+        if (error != null) {
+            Aria2RpcException ex = new Aria2RpcException(error.optInt("code", -1), error.optString("message", "Unknown error"));
+            for (PendingCall call : calls) call.fail(ex);
+            return;
+        }
+
+        Object result = obj.opt("result");
+        if (calls.length == 1) {
+            calls[0].succeed(result == JSONObject.NULL ? null : result);
+            return;
+        }
+
+        JSONArray results = result instanceof JSONArray ? (JSONArray) result : null;
+        for (int i = 0; i < calls.length; i++) {
+            Object single = results == null ? null : results.opt(i);
+            if (single instanceof JSONArray) {
+                calls[i].succeed(((JSONArray) single).opt(0));
+            } else if (single instanceof JSONObject) {
+                JSONObject fault = (JSONObject) single;
+                calls[i].fail(new Aria2RpcException(fault.optInt("code", -1), fault.optString("message", "Unknown error")));
+            } else {
+                calls[i].fail(new IOException("Missing multicall result at " + i));
+            }
+        }
+    }
+
+    private void handleNotification(@NonNull JSONObject obj) {
+        NotificationListener listener = notificationListener;
+        String method = obj.optString("method", null);
+        if (listener == null || method == null) return;
+
+        JSONArray params = obj.optJSONArray("params");
+        if (params == null) return;
+
+        for (int i = 0; i < params.length(); i++) {
+            JSONObject event = params.optJSONObject(i);
+            String gid = event == null ? null : event.optString("gid", null);
+            if (gid != null) listener.onNotification(method, gid);
+        }
+    }
+
+    private void failInFlight(@NonNull Exception ex) {
+        for (Long id : new ArrayList<>(inFlight.keySet())) {
+            PendingCall[] calls = inFlight.remove(id);
+            if (calls == null) continue;
+            for (PendingCall call : calls) call.fail(ex);
+        }
+    }
+
+    private void socketGone(@NonNull WebSocket ws, @NonNull Exception ex) {
+        synchronized (lock) {
+            if (webSocket != ws) return;
+
+            webSocket = null;
+            connected = false;
+            failInFlight(ex);
+            scheduleReconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+        List<PendingCall> pending;
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+
+            if (embedded) Aria2.get().removeListener(processListener);
+            if (reconnectTask != null) reconnectTask.cancel(false);
+            if (webSocket != null) webSocket.close(1000, null);
+            webSocket = null;
+            connected = false;
+
+            pending = new ArrayList<>(outbox);
+            outbox.clear();
+        }
+
+        IOException ex = new IOException("Client closed.");
+        for (PendingCall call : pending) call.fail(ex);
+        failInFlight(ex);
+        executor.shutdown();
+    }
+
+    public interface Callback {
+        void onResult(@Nullable Object result);
+
+        void onException(@NonNull Exception ex);
+    }
+
+    public interface NotificationListener {
+        void onNotification(@NonNull String method, @NonNull String gid);
+    }
+
+    private static class PendingCall {
+        final String method;
+        final JSONArray params;
+        final Callback callback;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        volatile ScheduledFuture<?> timeoutTask;
+
+        PendingCall(@NonNull String method, @Nullable JSONArray params, @NonNull Callback callback) {
+            this.method = method;
+            this.params = params;
+            this.callback = callback;
+        }
+
+        /**
+         * @return whether this is the first outcome of the call, later ones are dropped
+         */
+        private boolean complete() {
+            if (!done.compareAndSet(false, true)) return false;
+
+            ScheduledFuture<?> task = timeoutTask;
+            if (task != null) task.cancel(false);
+            return true;
+        }
+
+        void succeed(@Nullable Object result) {
+            if (complete()) callback.onResult(result);
+        }
+
+        void fail(@NonNull Exception ex) {
+            if (complete()) callback.onException(ex);
+        }
+
+        @NonNull
+        JSONArray params(@Nullable String secret) throws JSONException {
+            JSONArray array = new JSONArray();
+            if (secret != null && method.startsWith("aria2.")) array.put("token:" + secret);
+            if (params != null) {
+                for (int i = 0; i < params.length(); i++)
+                    array.put(params.get(i));
+            }
+
+            return array;
+        }
+    }
+
+    private static class SyncCallback implements Callback {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private Object result;
+        private Exception ex;
+
+        @Override
+        public void onResult(@Nullable Object result) {
+            this.result = result;
+            latch.countDown();
+        }
+
+        @Override
+        public void onException(@NonNull Exception ex) {
+            this.ex = ex;
+            latch.countDown();
+        }
+
+        @Nullable
+        Object await(int timeoutMs) throws Aria2RpcException, IOException, InterruptedException {
+            if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS))
+                throw new InterruptedIOException("Call timed out after " + timeoutMs + "ms");
+
+            if (ex instanceof Aria2RpcException) throw (Aria2RpcException) ex;
+            else if (ex instanceof IOException) throw (IOException) ex;
+            else if (ex != null) throw new IOException(ex);
+            else return result;
+        }
+    }
+
+    private class Listener extends WebSocketListener {
+
+        @Override
+        public void onOpen(@NonNull WebSocket ws, @NonNull Response response) {
+            synchronized (lock) {
+                if (webSocket != ws) return;
+
+                connected = true;
+                reconnectAttempts = 0;
+                if (!outbox.isEmpty()) scheduleFlush();
+            }
+        }
+
+        @Override
+        public void onMessage(@NonNull WebSocket ws, @NonNull String text) {
+            handleMessage(text);
+        }
+
+        @Override
+        public void onClosing(@NonNull WebSocket ws, int code, @NonNull String reason) {
+            ws.close(1000, null);
+            socketGone(ws, new IOException("Socket closed by server: " + reason + " (" + code + ")"));
+        }
+
+        @Override
+        public void onFailure(@NonNull WebSocket ws, @NonNull Throwable t, @Nullable Response response) {
+            socketGone(ws, t instanceof Exception ? (Exception) t : new IOException(t));
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.gianlu.aria2lib.rpc;
+
+import androidx.annotation.NonNull;
+
+public class Aria2RpcException extends Exception {
+    public final int code;
+
+    public Aria2RpcException(int code, @NonNull String message) {
+        super(message + " (" + code + ")");
+        this.code = code;
+    }
+}
@@ -6,28 +6,35 @@ import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Environment;
-import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.util.TypedValue;
 import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.LinearLayout;
-import android.widget.TextView;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StyleRes;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.gianlu.aria2lib.Aria2PK;
 import com.gianlu.aria2lib.Aria2Ui;
 import com.gianlu.aria2lib.R;
+import com.gianlu.aria2lib.internal.LogJournal;
+import com.gianlu.aria2lib.internal.Message;
 import com.gianlu.commonutils.CommonUtils;
 import com.gianlu.commonutils.misc.MessageView;
 import com.gianlu.commonutils.misc.SuperTextView;
 import com.gianlu.commonutils.preferences.Prefs;
 import com.gianlu.commonutils.preferences.json.JsonStoring;
 import com.gianlu.commonutils.ui.Toaster;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+import com.google.android.material.textfield.TextInputLayout;
 import com.yarolegovich.lovelyuserinput.LovelyInput;
 import com.yarolegovich.mp.AbsMaterialPreference;
 import com.yarolegovich.mp.AbsMaterialTextValuePreference;
@@ -43,15 +50,24 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 
 public class Aria2ConfigurationScreen extends MaterialPreferenceScreen {
+    private static final String TAG = Aria2ConfigurationScreen.class.getSimpleName();
+    private static final int MAX_SEARCH_RESULTS = 200;
+    private static final int MAX_LOG_ENTRIES = 10000;
+    private static final int LOGS_HEIGHT_DP = 320;
     private final MaterialPreferenceCategory generalCategory;
     private final MaterialPreferenceCategory rpcCategory;
     private final MaterialPreferenceCategory notificationsCategory;
     private final MaterialPreferenceCategory logsCategory;
     private final SuperTextView nicsText;
     private MaterialEditTextPreference outputPath;
-    private LinearLayout logsContainer;
+    private RecyclerView logsList;
+    private LogEntriesAdapter logsAdapter;
     private MessageView logsMessage;
     private MaterialStandardPreference customOptions;
     private boolean rpcEnabled = false;
@@ -155,6 +171,15 @@ public class Aria2ConfigurationScreen extends MaterialPreferenceScreen {
         if (mpFocusBgEnable) saveSession.setBackground(ContextCompat.getDrawable(getContext(), R.drawable.mp_focus_bg));
         generalCategory.addView(saveSession);
 
+        MaterialCheckboxPreference compactSession = new MaterialCheckboxPreference.Builder(getContext())
+                .key(Aria2PK.COMPACT_SESSION.key())
+                .defaultValue(Aria2PK.COMPACT_SESSION.fallback())
+                .build();
+        compactSession.setTitle(R.string.compactSession);
+        compactSession.setSummary(R.string.compactSession_summary);
+        if (mpFocusBgEnable) compactSession.setBackground(ContextCompat.getDrawable(getContext(), R.drawable.mp_focus_bg));
+        generalCategory.addView(compactSession);
+
         MaterialCheckboxPreference checkCertificate = new MaterialCheckboxPreference.Builder(getContext())
                 .key(Aria2PK.CHECK_CERTIFICATE.key())
                 .defaultValue(Aria2PK.CHECK_CERTIFICATE.fallback())
@@ -279,23 +304,35 @@ public class Aria2ConfigurationScreen extends MaterialPreferenceScreen {
         logsCategory.addView(logsMessage);
         logsMessage.setVisibility(View.VISIBLE);
 
-        logsContainer = new LinearLayout(getContext());
-        logsContainer.setOrientation(LinearLayout.VERTICAL);
+        logsList = new RecyclerView(getContext());
+        logsList.setLayoutManager(new LinearLayoutManager(getContext(), RecyclerView.VERTICAL, false));
+        logsList.setItemAnimator(null);
+        logsList.setHasFixedSize(true);
+        logsList.setNestedScrollingEnabled(true);
         int pad = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 8, getResources().getDisplayMetrics());
-        logsContainer.setPaddingRelative(pad, 0, pad, 0);
-        logsCategory.addView(logsContainer);
-        logsContainer.setVisibility(View.GONE);
+        logsList.setPaddingRelative(pad, 0, pad, 0);
+        logsList.setAdapter(logsAdapter = new LogEntriesAdapter(getContext(), MAX_LOG_ENTRIES, count -> {
+            logsList.setVisibility(count == 0 ? View.GONE : View.VISIBLE);
+            logsMessage.setVisibility(count == 0 ? View.VISIBLE : View.GONE);
+        }));
+        int height = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, LOGS_HEIGHT_DP, getResources().getDisplayMetrics());
+        logsList.setLayoutParams(new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, height));
+        logsCategory.addView(logsList);
+        logsList.setVisibility(View.GONE);
 
         MaterialStandardPreference clearLogs = new MaterialStandardPreference(getContext());
-        clearLogs.setOnClickListener(v -> {
-            logsContainer.removeAllViews();
-            logsContainer.setVisibility(View.GONE);
-            logsMessage.setVisibility(View.VISIBLE);
-        });
+        clearLogs.setOnClickListener(v -> logsAdapter.clear());
         clearLogs.setTitle(R.string.clearLogs);
         if (mpFocusBgEnable) clearLogs.setBackground(ContextCompat.getDrawable(getContext(), R.drawable.mp_focus_bg));
         logsCategory.addView(clearLogs);
 
+        MaterialStandardPreference searchLogs = new MaterialStandardPreference(getContext());
+        searchLogs.setOnClickListener(v -> showSearchLogsDialog());
+        searchLogs.setTitle(R.string.searchLogs);
+        searchLogs.setSummary(R.string.searchLogs_summary);
+        if (mpFocusBgEnable) searchLogs.setBackground(ContextCompat.getDrawable(getContext(), R.drawable.mp_focus_bg));
+        logsCategory.addView(searchLogs);
+
         refreshNics();
     }
 
@@ -324,63 +361,88 @@ public class Aria2ConfigurationScreen extends MaterialPreferenceScreen {
         outputPath.setValue(path);
     }
 
-    public void appendLogEntry(@NonNull LogEntry entry) {
-        if (logsContainer != null) {
-            logsContainer.setVisibility(View.VISIBLE);
-            logsMessage.setVisibility(View.GONE);
-            logsContainer.addView(entry.createView(getContext()), logsContainer.getChildCount());
-            if (logsContainer.getChildCount() > Aria2Ui.MAX_LOG_LINES)
-                logsContainer.removeViewAt(0);
+    @SuppressLint("InflateParams")
+    private void showSearchLogsDialog() {
+        FrameLayout layout = (FrameLayout) LayoutInflater.from(getContext()).inflate(R.layout.aria2lib_dialog_search_logs, null, false);
+        TextInputLayout query = layout.findViewById(R.id.searchLogsDialog_query);
+
+        new MaterialAlertDialogBuilder(getContext())
+                .setTitle(R.string.searchLogs)
+                .setView(layout)
+                .setPositiveButton(R.string.search, (dialogInterface, i) -> searchLogs(CommonUtils.getText(query)))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void searchLogs(@NonNull String query) {
+        new Thread(() -> {
+            List<LogJournal.Record> records;
+            try {
+                records = Aria2Ui.searchLogs(query, null, MAX_SEARCH_RESULTS);
+            } catch (RuntimeException ex) {
+                Log.e(TAG, "Failed searching logs.", ex);
+                post(() -> Toaster.with(getContext()).message(R.string.failedSearchingLogs).show());
+                return;
+            }
+
+            post(() -> showSearchResults(query, records));
+        }, "aria2lib-searchLogs").start();
+    }
+
+    private void showSearchResults(@NonNull String query, @NonNull List<LogJournal.Record> records) {
+        if (records.isEmpty()) {
+            Toaster.with(getContext()).message(R.string.noLogsFound).show();
+            return;
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("MM/dd HH:mm:ss", Locale.getDefault());
+        CharSequence[] items = new CharSequence[records.size()];
+        for (int i = 0; i < items.length; i++) {
+            LogJournal.Record record = records.get(i);
+            items[i] = format.format(new Date(record.timestamp)) + " " + levelLabel(record.type) + record.text;
         }
+
+        new MaterialAlertDialogBuilder(getContext())
+                .setTitle(query.isEmpty() ? getContext().getString(R.string.searchLogs) : query)
+                .setItems(items, null)
+                .setPositiveButton(R.string.done, null)
+                .show();
+    }
+
+    @NonNull
+    private static String levelLabel(@NonNull Message.Type type) {
+        switch (type) {
+            case PROCESS_ERROR:
+            case DOWNLOAD_ERROR:
+                return "ERROR: ";
+            case PROCESS_WARN:
+                return "WARNING: ";
+            default:
+                return "INFO: ";
+        }
+    }
+
+    public void appendLogEntry(@NonNull LogEntry entry) {
+        if (logsAdapter != null) logsAdapter.add(entry);
     }
 
     public static class LogEntry {
-        private final Type type;
-        private final String text;
+        final Type type;
+        final String text;
+        final int repeats;
+        boolean expanded = false;
 
         public LogEntry(@NonNull Type type, @NonNull String text) {
-            this.type = type;
-            this.text = text;
+            this(type, text, 0);
         }
 
-        @SuppressLint("SetTextI18n")
-        @NonNull
-        View createView(@NonNull Context context) {
-            LinearLayout layout = (LinearLayout) View.inflate(context, R.layout.aria2lib_log_entry, null);
-            TextView level = layout.findViewById(R.id.logEntry_level);
-            TextView msg = layout.findViewById(R.id.logEntry_msg);
-
-            msg.setText(text);
-            msg.setSingleLine(true);
-            msg.setTag(true);
-            msg.setEllipsize(TextUtils.TruncateAt.END);
-
-            switch (type) {
-                case INFO:
-                    level.setText("INFO: ");
-                    CommonUtils.setTextColor(level, R.color.logLevel_info);
-                    break;
-                case WARNING:
-                    level.setText("WARNING: ");
-                    CommonUtils.setTextColor(level, R.color.logLevel_warn);
-                    break;
-                case ERROR:
-                    level.setText("ERROR: ");
-                    CommonUtils.setTextColor(level, R.color.logLevel_error);
-                    break;
-            }
-
-            layout.setOnClickListener(view -> {
-                if ((Boolean) msg.getTag()) {
-                    msg.setSingleLine(false);
-                    msg.setTag(false);
-                } else {
-                    msg.setSingleLine(true);
-                    msg.setTag(true);
-                }
-            });
-
-            return layout;
+        /**
+         * @param repeats how many identical lines have been folded into this one, see {@link Aria2Ui.LogMessage#repeats()}
+         */
+        public LogEntry(@NonNull Type type, @NonNull String text, int repeats) {
+            this.type = type;
+            this.text = text;
+            this.repeats = repeats;
         }
 
         public enum Type {
@@ -3,8 +3,11 @@ package com.gianlu.aria2lib.ui;
 import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.util.Pair;
 import android.view.Menu;
@@ -18,7 +21,10 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.gianlu.aria2lib.Aria2PK;
+import com.gianlu.aria2lib.Aria2Ui;
+import com.gianlu.aria2lib.BadEnvironmentException;
 import com.gianlu.aria2lib.R;
+import com.gianlu.aria2lib.internal.Reconfiguration;
 import com.gianlu.commonutils.CommonUtils;
 import com.gianlu.commonutils.dialogs.ActivityWithDialog;
 import com.gianlu.commonutils.misc.RecyclerMessageView;
@@ -74,14 +80,72 @@ public class ConfigEditorActivity extends ActivityWithDialog implements SimpleOp
         }
     }
 
-    private void save() {
+    /**
+     * @param then called once the options have been saved and applied, or the user has decided not to restart aria2c
+     */
+    private void save(@NonNull Runnable then) {
         try {
             JsonStoring.intoPrefs().putJsonObject(Aria2PK.CUSTOM_OPTIONS, ImportExportUtils.toJson(adapter.get()));
             adapter.saved();
         } catch (JSONException ex) {
             Log.e(TAG, "Failed saving JSON.", ex);
             Toaster.with(this).message(R.string.failedSavingCustomOptions).show();
+            then.run();
+            return;
         }
+
+        applyOptions(then);
+    }
+
+    private void applyOptions(@NonNull Runnable then) {
+        Context context = getApplicationContext();
+        Handler handler = new Handler(Looper.getMainLooper());
+        new Thread(() -> {
+            try {
+                Reconfiguration result = Aria2Ui.reconfigure();
+                handler.post(() -> {
+                    if (result.restartRequired()) {
+                        askRestart(then);
+                        return;
+                    }
+
+                    if (!result.changed.isEmpty())
+                        Toaster.with(context).message(R.string.optionsAppliedLive).show();
+
+                    then.run();
+                });
+            } catch (BadEnvironmentException | IOException ex) {
+                Log.e(TAG, "Failed applying options.", ex);
+                handler.post(() -> {
+                    Toaster.with(context).message(R.string.failedApplyingOptions).show();
+                    then.run();
+                });
+            }
+        }, "aria2-reconfigure").start();
+    }
+
+    private void askRestart(@NonNull Runnable then) {
+        if (isFinishing()) {
+            Toaster.with(this).message(R.string.optionsAppliedNextStart).show();
+            then.run();
+            return;
+        }
+
+        MaterialAlertDialogBuilder builder = new MaterialAlertDialogBuilder(this);
+        builder.setTitle(R.string.restartAria2)
+                .setMessage(R.string.restartAria2_message)
+                .setCancelable(false)
+                .setPositiveButton(R.string.yes, (dialogInterface, i) -> {
+                    Aria2Ui.restart(getApplicationContext());
+                    Toaster.with(this).message(R.string.optionsAppliedRestart).show();
+                    then.run();
+                })
+                .setNegativeButton(R.string.no, (dialogInterface, i) -> {
+                    Toaster.with(this).message(R.string.optionsAppliedNextStart).show();
+                    then.run();
+                });
+
+        showDialog(builder);
     }
 
     @SuppressLint("InflateParams")
@@ -134,10 +198,7 @@ public class ConfigEditorActivity extends ActivityWithDialog implements SimpleOp
                 AlertDialog.Builder builder = new AlertDialog.Builder(this);
                 builder.setTitle(R.string.unsavedChanges)
                         .setMessage(R.string.unsavedChanges_message)
-                        .setPositiveButton(R.string.yes, (dialogInterface, i) -> {
-                            save();
-                            onBackPressed();
-                        })
+                        .setPositiveButton(R.string.yes, (dialogInterface, i) -> save(this::onBackPressed))
                         .setNegativeButton(R.string.no, (dialogInterface, i) -> onBackPressed())
                         .setNeutralButton(android.R.string.cancel, null);
 
@@ -155,8 +216,7 @@ public class ConfigEditorActivity extends ActivityWithDialog implements SimpleOp
             }
             return true;
         } else if (id == R.id.configEditor_done) {
-            save();
-            onBackPressed();
+            save(this::onBackPressed);
             return true;
         }
 
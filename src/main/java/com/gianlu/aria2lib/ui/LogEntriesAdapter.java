@@ -0,0 +1,163 @@
+package com.gianlu.aria2lib.ui;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.gianlu.aria2lib.R;
+import com.gianlu.aria2lib.internal.RingBuffer;
+import com.gianlu.commonutils.CommonUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last {@code capacity} log entries. Appended entries are buffered and handed to the
+ * {@link RecyclerView} once per frame with a single range notification.
+ */
+@UiThread
+final class LogEntriesAdapter extends RecyclerView.Adapter<LogEntriesAdapter.ViewHolder> {
+    private final LayoutInflater inflater;
+    private final RingBuffer<Aria2ConfigurationScreen.LogEntry> entries;
+    private final List<Aria2ConfigurationScreen.LogEntry> pending = new ArrayList<>();
+    private final Listener listener;
+    private final Runnable flush = this::flush;
+    private RecyclerView recyclerView;
+    private long firstId = 0;
+
+    LogEntriesAdapter(@NonNull Context context, int capacity, @NonNull Listener listener) {
+        this.inflater = LayoutInflater.from(context);
+        this.entries = new RingBuffer<>(capacity);
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        recyclerView.removeCallbacks(flush);
+        this.recyclerView = null;
+        flush();
+    }
+
+    void add(@NonNull Aria2ConfigurationScreen.LogEntry entry) {
+        pending.add(entry);
+        if (pending.size() == 1) {
+            if (recyclerView == null) flush();
+            else recyclerView.postOnAnimation(flush);
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) return;
+
+        boolean atBottom = recyclerView != null && !recyclerView.canScrollVertically(1);
+
+        int before = entries.size();
+        for (Aria2ConfigurationScreen.LogEntry entry : pending) entries.add(entry);
+        int added = pending.size();
+        pending.clear();
+
+        int evicted = before + added - entries.size();
+        firstId += evicted;
+        if (evicted > 0 && evicted >= before) {
+            notifyDataSetChanged();
+        } else {
+            if (evicted > 0) notifyItemRangeRemoved(0, evicted);
+            notifyItemRangeInserted(before - evicted, added);
+        }
+
+        listener.onItemsCountChanged(entries.size());
+        if (atBottom) recyclerView.scrollToPosition(entries.size() - 1);
+    }
+
+    void clear() {
+        if (recyclerView != null) recyclerView.removeCallbacks(flush);
+
+        firstId += entries.size() + pending.size();
+        pending.clear();
+        entries.clear();
+        notifyDataSetChanged();
+        listener.onItemsCountChanged(0);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return firstId + position;
+    }
+
+    @Override
+    public int getItemCount() {
+        return entries.size();
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ViewHolder(parent);
+    }
+
+    @Override
+    @SuppressLint("SetTextI18n")
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        Aria2ConfigurationScreen.LogEntry entry = entries.get(position);
+
+        if (entry.repeats > 0)
+            holder.msg.setText(entry.text + " " + holder.itemView.getResources().getQuantityString(R.plurals.logRepeated, entry.repeats, entry.repeats));
+        else
+            holder.msg.setText(entry.text);
+        holder.msg.setSingleLine(!entry.expanded);
+        holder.msg.setEllipsize(entry.expanded ? null : TextUtils.TruncateAt.END);
+
+        switch (entry.type) {
+            case INFO:
+                holder.level.setText("INFO: ");
+                CommonUtils.setTextColor(holder.level, R.color.logLevel_info);
+                break;
+            case WARNING:
+                holder.level.setText("WARNING: ");
+                CommonUtils.setTextColor(holder.level, R.color.logLevel_warn);
+                break;
+            case ERROR:
+                holder.level.setText("ERROR: ");
+                CommonUtils.setTextColor(holder.level, R.color.logLevel_error);
+                break;
+        }
+    }
+
+    interface Listener {
+        void onItemsCountChanged(int count);
+    }
+
+    class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView level;
+        final TextView msg;
+
+        ViewHolder(ViewGroup parent) {
+            super(inflater.inflate(R.layout.aria2lib_log_entry, parent, false));
+
+            level = itemView.findViewById(R.id.logEntry_level);
+            msg = itemView.findViewById(R.id.logEntry_msg);
+
+            itemView.setOnClickListener(view -> {
+                int pos = getAdapterPosition();
+                if (pos == RecyclerView.NO_POSITION) return;
+
+                Aria2ConfigurationScreen.LogEntry entry = entries.get(pos);
+                entry.expanded = !entry.expanded;
+                notifyItemChanged(pos);
+            });
+        }
+    }
+}
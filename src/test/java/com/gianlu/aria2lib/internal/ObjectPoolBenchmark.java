@@ -0,0 +1,131 @@
+package com.gianlu.aria2lib.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Several watcher threads (stdout, stderr, monitor and RPC notifications) posting at once, each keeping a few messages
+ * in flight before recycling them. Compares {@link ObjectPool} to the synchronized {@link LinkedList} cache it replaced.
+ */
+public class ObjectPoolBenchmark {
+    private static final int WATCHERS = 4;
+    private static final int IN_FLIGHT = 8;
+    private static final int POSTS = 500_000;
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * @return the elapsed time in milliseconds
+     */
+    private static long run(Pool pool) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < WATCHERS; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                Object[][] inFlight = new Object[IN_FLIGHT][];
+                for (int i = 0; i < POSTS; i++) {
+                    int slot = i % IN_FLIGHT;
+                    if (inFlight[slot] != null) pool.release(inFlight[slot]);
+
+                    Object[] msg = pool.acquire();
+                    if (msg == null) msg = new Object[3];
+                    inFlight[slot] = msg;
+                }
+
+                for (Object[] msg : inFlight)
+                    if (msg != null) pool.release(msg);
+            }, "watcher-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static void compare(int capacity) throws InterruptedException {
+        ObjectPool<Object[]> pool = null;
+        long lockFreeMillis = Long.MAX_VALUE;
+        long lockedMillis = Long.MAX_VALUE;
+        for (int i = 0; i < WARMUP_ROUNDS + 1; i++) {
+            pool = new ObjectPool<>(capacity);
+            lockFreeMillis = Math.min(lockFreeMillis, run(new LockFreePool(pool)));
+            lockedMillis = Math.min(lockedMillis, run(new LockedPool()));
+        }
+
+        System.out.printf("%d watchers, %d in flight each, capacity %d: %s in %dms, synchronized LinkedList in %dms%n",
+                WATCHERS, IN_FLIGHT, capacity, pool, lockFreeMillis, lockedMillis);
+
+        assertEquals(WATCHERS * (long) POSTS, pool.hits() + pool.misses());
+        assertEquals(pool.misses(), pool.size() + pool.overflows());
+        assertTrue(pool.size() <= capacity);
+        assertTrue("Hit rate below 99%: " + pool, pool.misses() * 100 < pool.hits() + pool.misses());
+    }
+
+    @Test
+    public void enoughCapacity() throws InterruptedException {
+        compare(64); // Message's default, twice what is in flight
+    }
+
+    @Test
+    public void undersized() throws InterruptedException {
+        compare(WATCHERS * IN_FLIGHT / 4);
+    }
+
+    private interface Pool {
+        Object[] acquire();
+
+        void release(Object[] obj);
+    }
+
+    private static class LockFreePool implements Pool {
+        final ObjectPool<Object[]> pool;
+
+        LockFreePool(ObjectPool<Object[]> pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public Object[] acquire() {
+            return pool.acquire();
+        }
+
+        @Override
+        public void release(Object[] obj) {
+            pool.release(obj);
+        }
+    }
+
+    private static class LockedPool implements Pool {
+        private final Queue<Object[]> cache = new LinkedList<>();
+
+        @Override
+        public Object[] acquire() {
+            synchronized (cache) {
+                return cache.poll();
+            }
+        }
+
+        @Override
+        public void release(Object[] obj) {
+            synchronized (cache) {
+                cache.add(obj);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.gianlu.aria2lib.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectPoolTest {
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 200_000;
+
+    @Test
+    public void boundedByCapacity() {
+        ObjectPool<Object> pool = new ObjectPool<>(2);
+        assertNull(pool.acquire());
+
+        Object a = new Object();
+        Object b = new Object();
+        assertTrue(pool.release(a));
+        assertTrue(pool.release(b));
+        assertFalse(pool.release(new Object()));
+        assertEquals(2, pool.size());
+
+        Object first = pool.acquire();
+        Object second = pool.acquire();
+        assertTrue(first != second && (first == a || first == b) && (second == a || second == b));
+        assertNull(pool.acquire());
+        assertEquals(2, pool.hits());
+        assertEquals(2, pool.misses());
+        assertEquals(1, pool.overflows());
+    }
+
+    /**
+     * Every thread repeatedly takes an instance and gives it back, an instance handed to two threads at once fails the check.
+     */
+    @Test
+    public void neverHandsOutTheSameInstanceTwice() throws InterruptedException {
+        ObjectPool<AtomicBoolean> pool = new ObjectPool<>(THREADS / 2);
+        AtomicReference<String> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                for (int i = 0; i < ITERATIONS && failure.get() == null; i++) {
+                    AtomicBoolean inUse = pool.acquire();
+                    if (inUse == null) inUse = new AtomicBoolean();
+
+                    if (!inUse.compareAndSet(false, true)) {
+                        failure.set("Instance handed out twice at iteration " + i);
+                        return;
+                    }
+
+                    Thread.yield();
+                    inUse.set(false);
+                    pool.release(inUse);
+                }
+            }, "pool-stress-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+
+        assertNull(failure.get());
+        assertEquals(THREADS * (long) ITERATIONS, pool.hits() + pool.misses());
+        assertTrue(pool.size() <= pool.capacity());
+
+        // Every instance created on a miss is either back in the pool or dropped because the pool was full
+        assertEquals(pool.misses(), pool.size() + pool.overflows());
+    }
+}
@@ -0,0 +1,105 @@
+package com.gianlu.aria2lib.internal;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of {@link OutputReader} and of the {@link Scanner} and regex based reader it replaced
+ * on a recorded aria2c console output (progress readouts, summaries, notices and errors for three downloads).
+ */
+public class OutputReaderBenchmark {
+    private static final Pattern INFO_MESSAGE_PATTERN = Pattern.compile("^\\d{2}/\\d{2} \\d{2}:\\d{2}:\\d{2} \\[.+] (.+)$");
+    private static final int TARGET_SIZE = 8 * 1024 * 1024;
+    private static final int ROUNDS = 5;
+
+    @NonNull
+    private static byte[] fixture() throws IOException {
+        ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+        try (InputStream in = OutputReaderBenchmark.class.getResourceAsStream("/aria2c.log")) {
+            assertNotNull("Missing aria2c.log fixture", in);
+
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) recorded.write(buffer, 0, read);
+        }
+
+        byte[] once = recorded.toByteArray();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(TARGET_SIZE + once.length);
+        while (out.size() < TARGET_SIZE) out.write(once, 0, once.length);
+        return out.toByteArray();
+    }
+
+    private static void legacy(@NonNull byte[] output, @NonNull OutputReader.Listener listener) {
+        try (Scanner scanner = new Scanner(new ByteArrayInputStream(output), "UTF-8")) {
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine();
+                if (line.isEmpty()) continue;
+
+                if (line.startsWith("WARNING: ")) {
+                    listener.onLine(Message.Type.PROCESS_WARN, line.substring(9));
+                } else if (line.startsWith("ERROR: ")) {
+                    listener.onLine(Message.Type.PROCESS_ERROR, line.substring(7));
+                } else {
+                    Matcher matcher = INFO_MESSAGE_PATTERN.matcher(line);
+                    listener.onLine(Message.Type.PROCESS_INFO, matcher.find() ? matcher.group(1) : line);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the best time in nanoseconds
+     */
+    private static long best(@NonNull byte[] output, boolean legacy, @NonNull Map<Message.Type, Integer> counts) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            counts.clear();
+            OutputReader.Listener listener = (type, text) -> {
+                Integer count = counts.get(type);
+                counts.put(type, count == null ? 1 : count + 1);
+            };
+
+            long start = System.nanoTime();
+            if (legacy) legacy(output, listener);
+            else new OutputReader(new ByteArrayInputStream(output)).read(listener);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        return best;
+    }
+
+    private static double megabytesPerSecond(int bytes, long nanos) {
+        return (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+    }
+
+    @Test
+    public void recordedOutput() throws IOException {
+        byte[] output = fixture();
+
+        Map<Message.Type, Integer> legacyCounts = new EnumMap<>(Message.Type.class);
+        Map<Message.Type, Integer> readerCounts = new EnumMap<>(Message.Type.class);
+        long legacyNanos = best(output, true, legacyCounts);
+        long readerNanos = best(output, false, readerCounts);
+
+        System.out.printf("%d bytes, lines %s: Scanner+regex %.1fMB/s, OutputReader %.1fMB/s%n", output.length, readerCounts,
+                megabytesPerSecond(output.length, legacyNanos), megabytesPerSecond(output.length, readerNanos));
+
+        assertEquals(legacyCounts, readerCounts);
+        assertTrue("OutputReader isn't faster", readerNanos < legacyNanos);
+    }
+}
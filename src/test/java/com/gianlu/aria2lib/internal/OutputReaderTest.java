@@ -0,0 +1,124 @@
+package com.gianlu.aria2lib.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link OutputReader} against the {@link Scanner} and regex based reader it replaced.
+ */
+public class OutputReaderTest {
+    private static final Pattern INFO_MESSAGE_PATTERN = Pattern.compile("^\\d{2}/\\d{2} \\d{2}:\\d{2}:\\d{2} \\[.+] (.+)$");
+    private static final String[] LEVELS = {"NOTICE", "WARN", "ERROR", "INFO", "DEBUG"};
+    private static final String[] FRAGMENTS = {"] ", "]", "[", " ", "Download complete: ", "/sdcard/file.bin", "GID#2089b05ecca3d829",
+            "WARNING: ", "ERROR: ", "12/31 ", "23:59:59 ", "è", "日本", "\t", ":", "/", "0", "99"};
+
+    private static List<String> legacy(byte[] output) {
+        List<String> lines = new ArrayList<>();
+        try (Scanner scanner = new Scanner(new ByteArrayInputStream(output), "UTF-8")) {
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine();
+                if (line.isEmpty()) continue;
+
+                if (line.startsWith("WARNING: ")) {
+                    lines.add(Message.Type.PROCESS_WARN + "|" + line.substring(9));
+                } else if (line.startsWith("ERROR: ")) {
+                    lines.add(Message.Type.PROCESS_ERROR + "|" + line.substring(7));
+                } else {
+                    Matcher matcher = INFO_MESSAGE_PATTERN.matcher(line);
+                    lines.add(Message.Type.PROCESS_INFO + "|" + (matcher.find() ? matcher.group(1) : line));
+                }
+            }
+        }
+
+        return lines;
+    }
+
+    private static List<String> read(byte[] output, int bufferSize) throws IOException {
+        List<String> lines = new ArrayList<>();
+        new OutputReader(new ByteArrayInputStream(output), bufferSize).read((type, text) -> lines.add(type + "|" + text));
+        return lines;
+    }
+
+    private static String randomLine(Random random) {
+        StringBuilder builder = new StringBuilder();
+        switch (random.nextInt(4)) {
+            case 0:
+                builder.append(String.format("%02d/%02d %02d:%02d:%02d [%s] ", random.nextInt(13), random.nextInt(32),
+                        random.nextInt(24), random.nextInt(60), random.nextInt(60), LEVELS[random.nextInt(LEVELS.length)]));
+                break;
+            case 1:
+                builder.append(random.nextBoolean() ? "WARNING: " : "ERROR: ");
+                break;
+            case 2:
+                builder.append(String.format("%02d/%02d %02d:%02d:%02d [", random.nextInt(100), random.nextInt(100),
+                        random.nextInt(100), random.nextInt(100), random.nextInt(100)));
+                break;
+            default:
+                break;
+        }
+
+        int fragments = random.nextInt(8);
+        for (int i = 0; i < fragments; i++)
+            builder.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+
+        return builder.toString();
+    }
+
+    private static byte[] randomOutput(Random random, int lines) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            builder.append(randomLine(random));
+            switch (random.nextInt(4)) {
+                case 0:
+                    builder.append("\r\n");
+                    break;
+                case 1:
+                    builder.append('\r');
+                    break;
+                default:
+                    builder.append('\n');
+                    break;
+            }
+        }
+
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void sameAsLegacyOnSamples() throws IOException {
+        byte[] output = ("03/14 10:21:07 [NOTICE] Downloading 1 item(s)\n"
+                + "03/14 10:21:07 [NOTICE] IPv4 RPC: listening on TCP port 6800\r\n"
+                + "WARNING: Neither ARIA2_CONFIG_FILE nor HOME is set.\n"
+                + "ERROR: Failed to open the file /sdcard/x, cause: Permission denied\n"
+                + "\n"
+                + "03/14 10:21:08 [NOTICE] [GID#1] Download complete: /sdcard/a] b\n"
+                + "03/14 10:21:08 [NOTICE] \n"
+                + "Exception: [AbstractCommand.cc:351] errorCode=1 URI=http://x\n"
+                + "03/14 10:21:09 [NOTICE] Shutdown sequence commencing...").getBytes(StandardCharsets.UTF_8);
+
+        assertEquals(legacy(output), read(output, 8192));
+        assertEquals(legacy(output), read(output, 16));
+    }
+
+    @Test
+    public void sameAsLegacyOnFuzzedOutput() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] output = randomOutput(random, 100);
+            List<String> expected = legacy(output);
+            assertEquals(expected, read(output, 8192));
+            assertEquals(expected, read(output, 1 + random.nextInt(64)));
+        }
+    }
+}
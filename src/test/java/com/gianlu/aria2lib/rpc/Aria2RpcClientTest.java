@@ -0,0 +1,213 @@
+package com.gianlu.aria2lib.rpc;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the client against a stand-in aria2 RPC server: every WebSocket connection is served by a {@link FakeAria2}.
+ */
+public class Aria2RpcClientTest {
+    private static final String SECRET = "secret";
+    private MockWebServer server;
+    private Aria2RpcClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new Aria2RpcClient(server.getHostName(), server.getPort(), SECRET);
+        client.setCallTimeout(5000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.shutdown();
+    }
+
+    @NonNull
+    private static JSONArray params(Object... values) {
+        JSONArray array = new JSONArray();
+        for (Object value : values) array.put(value);
+        return array;
+    }
+
+    @Test
+    public void matchesResponsesById() throws Exception {
+        FakeAria2 aria2 = new FakeAria2(2);
+        server.enqueue(new MockResponse().withWebSocketUpgrade(aria2));
+        client.setMaxBatchSize(1);
+
+        Results results = new Results(2);
+        client.call("aria2.tellStatus", params("gid1"), results);
+        client.call("aria2.tellStatus", params("gid2"), results);
+        results.await();
+
+        // The fake answers the second request first
+        assertEquals(2, aria2.requests.size());
+        assertEquals("tellStatus:gid2", results.values.get(0));
+        assertEquals("tellStatus:gid1", results.values.get(1));
+    }
+
+    @Test
+    public void batchesIntoMulticall() throws Exception {
+        FakeAria2 aria2 = new FakeAria2(1);
+        server.enqueue(new MockResponse().withWebSocketUpgrade(aria2));
+        client.setBatchWindow(200);
+        client.connect();
+
+        Results first = new Results(1);
+        Results second = new Results(1);
+        Results failing = new Results(1);
+        client.call("aria2.getVersion", null, first);
+        client.call("system.listMethods", null, second);
+        client.call("aria2.fail", params("x"), failing);
+        first.await();
+        second.await();
+        failing.await();
+
+        assertEquals(1, aria2.requests.size());
+        JSONObject request = aria2.requests.get(0);
+        assertEquals("system.multicall", request.getString("method"));
+
+        JSONArray calls = request.getJSONArray("params").getJSONArray(0);
+        assertEquals(3, calls.length());
+        assertEquals("token:" + SECRET, calls.getJSONObject(0).getJSONArray("params").getString(0));
+        assertEquals(0, calls.getJSONObject(1).getJSONArray("params").length()); // No token for system methods
+
+        assertEquals("getVersion:", first.values.get(0));
+        assertEquals("listMethods:", second.values.get(0));
+        assertTrue(failing.values.get(0) instanceof Aria2RpcException);
+    }
+
+    @Test
+    public void reconnectsAfterServerCloses() throws Exception {
+        FakeAria2 closing = new FakeAria2(1);
+        closing.closeOnRequest = true;
+        FakeAria2 aria2 = new FakeAria2(1);
+        server.enqueue(new MockResponse().withWebSocketUpgrade(closing));
+        server.enqueue(new MockResponse().withWebSocketUpgrade(aria2));
+
+        try {
+            client.callSync("aria2.getVersion", null);
+            fail("The first connection doesn't answer");
+        } catch (IOException ignored) {
+        }
+
+        assertEquals("getVersion:", client.callSync("aria2.getVersion", null));
+        assertEquals(2, server.getRequestCount());
+        assertTrue(client.isConnected());
+    }
+
+    /**
+     * Answers every call with {@code "<method>:<first param>"}, fails {@code aria2.fail} and answers pending requests in reverse order.
+     */
+    private static class FakeAria2 extends WebSocketListener {
+        final List<JSONObject> requests = new CopyOnWriteArrayList<>();
+        private final int answerEvery;
+        private final List<JSONObject> pending = new CopyOnWriteArrayList<>();
+        boolean closeOnRequest = false;
+
+        FakeAria2(int answerEvery) {
+            this.answerEvery = answerEvery;
+        }
+
+        @NonNull
+        private static Object answer(@NonNull String method, @NonNull JSONArray params) throws JSONException {
+            String name = method.substring(method.indexOf('.') + 1);
+            if (name.equals("fail")) return new JSONObject().put("code", 1).put("message", "Failed");
+
+            Object first = params.length() > 0 ? params.get(0) : "";
+            if (first instanceof String && ((String) first).startsWith("token:")) first = params.length() > 1 ? params.get(1) : "";
+            return name + ":" + first;
+        }
+
+        @Override
+        public void onMessage(@NonNull WebSocket ws, @NonNull String text) {
+            try {
+                JSONObject request = new JSONObject(text);
+                requests.add(request);
+                if (closeOnRequest) {
+                    ws.close(1001, "Going away");
+                    return;
+                }
+
+                pending.add(request);
+                if (pending.size() < answerEvery) return;
+
+                for (int i = pending.size() - 1; i >= 0; i--) ws.send(respond(pending.get(i)).toString());
+                pending.clear();
+            } catch (JSONException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @NonNull
+        private JSONObject respond(@NonNull JSONObject request) throws JSONException {
+            JSONObject response = new JSONObject().put("jsonrpc", "2.0").put("id", request.get("id"));
+            String method = request.getString("method");
+            if (method.equals("system.multicall")) {
+                JSONArray calls = request.getJSONArray("params").getJSONArray(0);
+                JSONArray results = new JSONArray();
+                for (int i = 0; i < calls.length(); i++) {
+                    JSONObject call = calls.getJSONObject(i);
+                    Object answer = answer(call.getString("methodName"), call.getJSONArray("params"));
+                    results.put(answer instanceof JSONObject ? answer : new JSONArray().put(answer));
+                }
+
+                return response.put("result", results);
+            }
+
+            Object answer = answer(method, request.getJSONArray("params"));
+            if (answer instanceof JSONObject) return response.put("error", answer);
+            else return response.put("result", answer);
+        }
+    }
+
+    private static class Results implements Aria2RpcClient.Callback {
+        final List<Object> values = new CopyOnWriteArrayList<>();
+        private final CountDownLatch latch;
+
+        Results(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onResult(@Nullable Object result) {
+            values.add(result);
+            latch.countDown();
+        }
+
+        @Override
+        public void onException(@NonNull Exception ex) {
+            values.add(ex);
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            if (!latch.await(5, TimeUnit.SECONDS)) fail("Timed out, got " + values);
+        }
+    }
+}